@@ -7,6 +7,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.*;
 import java.awt.image.*;
+import java.io.IOException;
 import java.util.Vector;
 import javax.swing.*;
 import javax.swing.undo.*;
@@ -117,6 +118,43 @@ public class AnnotateCanvas extends TransPanel {
 		frame.enableUndo(true);
 	}
 
+	/**
+	 * Record in the journal that head of token is set to parent, before
+	 * doing it.
+	 */
+	void journal(int token, int parent) {
+		if (editing.journal == null || editing.index < 0)
+			return;
+		try {
+			editing.journal.log(editing.index, token, parent);
+		} catch (IOException e) {
+			// the edit will still be saved by the next save
+		}
+	}
+
+	/**
+	 * Record in the journal that field of token is set to value, before
+	 * doing it.
+	 */
+	void journal(int token, byte field, String value) {
+		if (editing.journal == null || editing.index < 0)
+			return;
+		try {
+			editing.journal.log(editing.index, token, field, value);
+		} catch (IOException e) {
+			// the edit will still be saved by the next save
+		}
+	}
+
+	/**
+	 * @return the instance of value shared by the corpus being edited, so
+	 * that values can still be compared by reference after the edit.
+	 */
+	String intern(String value) {
+		return (editing.corpus == null) ? value
+		    : editing.corpus.vocabulary.intern(value);
+	}
+
 	@SuppressWarnings("serial")
 	class DgaEdit extends AbstractUndoableEdit {
 		public void undo() {
@@ -126,6 +164,7 @@ public class AnnotateCanvas extends TransPanel {
 			}
 			frame.enableRedo(true);
 			update();
+			notifyCorpus();
 		}
 		public void redo() {
 			if (!sentence.changed()) {
@@ -134,6 +173,17 @@ public class AnnotateCanvas extends TransPanel {
 			}
 			frame.enableUndo(undo.canUndo());
 			update();
+			notifyCorpus();
+		}
+		/**
+		 * Notify the corpus, and through it the corpus pane, of the change
+		 * to the sentence, which the corpus must keep from now on.
+		 */
+		void notifyCorpus() {
+			if (editing.corpus != null && editing.index >= 0) {
+				editing.corpus.setSentence(editing.index, editing.sentence);
+				editing.corpus.sentenceChanged(editing.index);
+			}
 		}
 	}
 
@@ -148,15 +198,19 @@ public class AnnotateCanvas extends TransPanel {
 		}
 
 		public void undo() {
-			sentence.parents[from] = to;
+			journal(from, to);
+			journal(from, EditJournal.depField, label);
+			sentence.setParent(from, to);
 			sentence.deps[from] = label;
 			deps.wordAt(from, label);
 			super.undo();
 		}
 
 		public void redo() {
-			sentence.parents[from] = 0;
-			sentence.deps[from] = "";
+			journal(from, 0);
+			journal(from, EditJournal.depField, "");
+			sentence.setParent(from, 0);
+			sentence.deps[from] = intern("");
 			super.redo();
 		}
 
@@ -174,13 +228,16 @@ public class AnnotateCanvas extends TransPanel {
 		}
 
 		public void undo() {
-			sentence.parents[from] = 0;
-			sentence.deps[from] = "";
+			journal(from, 0);
+			journal(from, EditJournal.depField, "");
+			sentence.setParent(from, 0);
+			sentence.deps[from] = intern("");
 			super.undo();
 		}
 
 		public void redo() {
-			sentence.parents[from] = to;
+			journal(from, to);
+			sentence.setParent(from, to);
 			super.undo();
 		}
 
@@ -193,17 +250,19 @@ public class AnnotateCanvas extends TransPanel {
 
 		LabelEdit(int token, String label, String previous) {
 			this.token = token;
-			this.label = label;
+			this.label = intern(label);
 			this.previous = previous;
 		}
 
 		public void undo() {
+			journal(token, EditJournal.depField, previous);
 			sentence.deps[token] = previous;
 			deps.wordAt(token, previous);
 			super.undo();
 		}
 
 		public void redo() {
+			journal(token, EditJournal.depField, label);
 			sentence.deps[token] = label; // model
 			deps.wordAt(token, label);	// view
 			super.redo();
@@ -218,17 +277,19 @@ public class AnnotateCanvas extends TransPanel {
 
 		TagEdit(int token, String label, String previous) {
 			this.token = token;
-			this.label = label;
+			this.label = intern(label);
 			this.previous = previous;
 		}
 
 		public void undo() {
+			journal(token, EditJournal.tagField, previous);
 			sentence.tags[token] = previous;
 			tags.wordAt(token, previous);
 			super.undo();	
 		}
 
 		public void redo() {
+			journal(token, EditJournal.tagField, label);
 			sentence.tags[token] = label; // model
 			tags.wordAt(token, label);	// view
 			super.redo();
@@ -243,28 +304,26 @@ public class AnnotateCanvas extends TransPanel {
 
 		TokenEdit(int idx, String form) {
 			this.idx = idx;
-			this.form = form;
+			this.form = intern(form);
 		}
 
 		public void undo() {
+			journal(idx, EditJournal.formField, form);
 			String temp = sentence.forms[idx];
 			sentence.forms[idx] = form;
 			words.widths[idx] = words.fontMetrics.stringWidth(form);
 			tokenWidth[idx] = Math.max(tags.widths[idx], words.widths[idx]);	// reset in width
 			form = temp;
-			// refresh the Corpus pane
-			frame.corpusPane.reset();
 			super.undo();
 		}
 
 		public void redo() {
+			journal(idx, EditJournal.formField, form);
 			String temp = sentence.forms[idx];
 			sentence.forms[idx] = form;
 			words.widths[idx] = words.fontMetrics.stringWidth(form);
 			tokenWidth[idx] = Math.max(tags.widths[idx], words.widths[idx]);	// reset in width
 			form = temp;
-			// refresh the Corpus pane
-			frame.corpusPane.reset();
 			super.redo();	
 		}
 
@@ -440,28 +499,31 @@ public class AnnotateCanvas extends TransPanel {
 			arrH[i] = 0;
 			arrInH[i] = 0;
 		}
-		for (int span = 1; span < length; span++) {
-			for (int i = 0; i < length; i++) {
-				// compute height of each link
-				if (sentence.parents[i] == span) {
-					// link from i -> i+span. Must be one higher than any inner
-					// link
-					for (int inner = i + 1; inner < i + span; inner++) {
-						arrH[i] = Math.max(arrH[i], Math.max(arrH[inner],
-								arrInH[inner]));
-					}
-					arrH[i] += linkHeight;
-					arrInH[i + span] = Math.max(arrInH[i + span], arrH[i]);
-				} else if (sentence.parents[i] == -span) {
-					// link from i -> i-span. Must be one higher than any inner
-					// link
-					for (int inner = i - 1; inner > i - span; inner--) {
-						arrH[i] = Math.max(arrH[i], Math.max(arrH[inner],
-								arrInH[inner]));
-					}
-					arrH[i] += linkHeight;
-					arrInH[i - span] = Math.max(arrInH[i - span], arrH[i]);
+		// shorter links first
+		DependencyTree tree = sentence.tree();
+		for (int k = 0; k < tree.arcs(); k++) {
+			int i = tree.arcByLength(k);
+			int span = sentence.parents[i];
+			// compute height of each link
+			if (span > 0) {
+				// link from i -> i+span. Must be one higher than any inner
+				// link
+				for (int inner = i + 1; inner < i + span; inner++) {
+					arrH[i] = Math.max(arrH[i], Math.max(arrH[inner],
+							arrInH[inner]));
+				}
+				arrH[i] += linkHeight;
+				arrInH[i + span] = Math.max(arrInH[i + span], arrH[i]);
+			} else {
+				span = -span;
+				// link from i -> i-span. Must be one higher than any inner
+				// link
+				for (int inner = i - 1; inner > i - span; inner--) {
+					arrH[i] = Math.max(arrH[i], Math.max(arrH[inner],
+							arrInH[inner]));
 				}
+				arrH[i] += linkHeight;
+				arrInH[i - span] = Math.max(arrInH[i - span], arrH[i]);
 			}
 		}
 		// compute height of root links
@@ -577,28 +639,31 @@ public class AnnotateCanvas extends TransPanel {
 					&& root == -1) // sometimes there is a second one
 				root = i;
 		}
-		for (int span = 1; span < length; span++) {
-			for (int i = 0; i < length; i++) {
-				// compute height of each link
-				if (sentence2.parents[i] == span) {
-					// link from i -> i+span. Must be one higher than any inner
-					// link
-					for (int inner = i + 1; inner < i + span; inner++) {
-						arrH2[i] = Math.max(arrH2[i], Math.max(arrH2[inner],
-								arrInH2[inner]));
-					}
-					arrH2[i] += linkHeight;
-					arrInH2[i + span] = Math.max(arrInH2[i + span], arrH2[i]);
-				} else if (sentence2.parents[i] == -span) {
-					// link from i -> i-span. Must be one higher than any inner
-					// link
-					for (int inner = i; inner > i - span; inner--) {
-						arrH2[i] = Math.max(arrH2[i], Math.max(arrH2[inner],
-								arrInH2[inner]));
-					}
-					arrH2[i] += linkHeight;
-					arrInH2[i - span] = Math.max(arrInH2[i - span], arrH2[i]);
+		// shorter links first
+		DependencyTree tree2 = sentence2.tree();
+		for (int k = 0; k < tree2.arcs(); k++) {
+			int i = tree2.arcByLength(k);
+			int span = sentence2.parents[i];
+			// compute height of each link
+			if (span > 0) {
+				// link from i -> i+span. Must be one higher than any inner
+				// link
+				for (int inner = i + 1; inner < i + span; inner++) {
+					arrH2[i] = Math.max(arrH2[i], Math.max(arrH2[inner],
+							arrInH2[inner]));
+				}
+				arrH2[i] += linkHeight;
+				arrInH2[i + span] = Math.max(arrInH2[i + span], arrH2[i]);
+			} else {
+				span = -span;
+				// link from i -> i-span. Must be one higher than any inner
+				// link
+				for (int inner = i; inner > i - span; inner--) {
+					arrH2[i] = Math.max(arrH2[i], Math.max(arrH2[inner],
+							arrInH2[inner]));
 				}
+				arrH2[i] += linkHeight;
+				arrInH2[i - span] = Math.max(arrInH2[i - span], arrH2[i]);
 			}
 		}
 		if (root != -1) {
@@ -0,0 +1,81 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.File;
+import java.util.concurrent.*;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * Saves corpora in background, so that the user interface never blocks
+ * while a large corpus is written.
+ * A save takes a Snapshot of the corpus on the Event Dispatch Thread,
+ * which just copies the sentences changed, and writes it on a background
+ * thread, replacing the file atomically.
+ * Saves are performed one at a time, in the order they were requested.
+ *
+ * @author Attardi
+ *
+ */
+class Autosave {
+
+  /**
+   * Seconds between automatic saves of changed corpora, 0 to disable them.
+   * Set by property dga.autosave.
+   */
+  static final int interval = Integer.getInteger("dga.autosave", 300);
+
+  private static final ExecutorService executor = Executors
+      .newSingleThreadExecutor(new ThreadFactory() {
+	public Thread newThread(Runnable r) {
+	  Thread thread = new Thread(r, "DGA autosave");
+	  thread.setDaemon(true);
+	  return thread;
+	}
+      });
+
+  /**
+   * Save corpus to file in background.
+   * Must be called on the Event Dispatch Thread.
+   *
+   * @param corpus
+   * @param file
+   * @param done run on the Event Dispatch Thread after a successful save.
+   * @return the outcome of the save.
+   */
+  static Future<Boolean> save(final Corpus corpus, final File file,
+      final Runnable done) {
+    return executor.submit(new Callable<Boolean>() {
+      public Boolean call() throws Exception {
+	// the snapshot is taken after the previous save has been applied
+	final Snapshot[] snapshot = new Snapshot[1];
+	SwingUtilities.invokeAndWait(new Runnable() {
+	  public void run() {
+	    snapshot[0] = corpus.snapshot();
+	  }
+	});
+	boolean saved;
+	try {
+	  saved = corpus.save(file, snapshot[0]);
+	} catch (RuntimeException e) {
+	  saved = false;	// e.g. a malformed sentence in a MappedCorpus
+	}
+	final boolean success = saved;
+	SwingUtilities.invokeLater(new Runnable() {
+	  public void run() {
+	    if (success) {
+	      corpus.saved(snapshot[0]);
+	      if (done != null) done.run();
+	    } else
+	      JOptionPane.showMessageDialog(null, "Error saving file: " + file,
+		  "Save Error", JOptionPane.ERROR_MESSAGE);
+	  }
+	});
+	return success;
+      }
+    });
+  }
+}
@@ -0,0 +1,337 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.*;
+
+/**
+ * Reads and writes corpora in the compact binary format (.dgab).
+ *
+ * The file starts with a header (magic number, version, language, number of
+ * sentences), followed by the sentences.
+ * Token values are written as codes into a dictionary built while writing:
+ * 0 for none, else the code + 1, followed by the value itself when it is
+ * first used. Head offsets and numbers are written as variable length
+ * integers.
+ * Each sentence consists of:
+ *	id length
+ *	forms lemmas cpos pos feats deprels pheads pdeprels (length codes each)
+ *	heads (length zigzag varints)
+ *	context: 0 none | 1 metadata | 2 document
+ *	extras:  0 none | 1 multiwords | 2 XML elements
+ * Each multiword token consists of:
+ *	first last form columns
+ *
+ * @author Attardi
+ *
+ */
+class BinaryCorpus {
+
+  static final int  magic   = 0x44474142;	// "DGAB"
+  static final int  version = 1;
+
+  static final String extension = ".dgab";
+
+  static final byte noContext	   = 0;
+  static final byte metaContext	   = 1;
+  static final byte docContext	   = 2;
+  static final byte noExtras	   = 0;
+  static final byte multiwordExtras = 1;
+  static final byte xmlExtras	   = 2;
+
+  /**
+   * Write corpus to file in binary format.
+   * The file is written to a temporary file, made durable and then moved in
+   * place of file, so that a crash never leaves it partially written.
+   *
+   * @param corpus
+   * @param file
+   * @throws IOException
+   */
+  static void write(Corpus corpus, File file) throws IOException {
+    File temp = IncrementalWriter.createTemp(file);
+    try {
+      FileOutputStream fos = new FileOutputStream(temp);
+      try {
+	OutputStream os = Gzip.compress(file, fos);
+	write(new Snapshot(corpus), os);
+	Gzip.finish(os);
+	fos.getFD().sync();
+      } finally {
+	fos.close();
+      }
+      IncrementalWriter.move(temp, file);
+    } finally {
+      temp.delete();
+    }
+  }
+
+  /**
+   * Write the sentences of snapshot to os in binary format.
+   * Sentences are streamed as they are coded, each value being written
+   * along with its first use, so that the dictionary contains what was
+   * actually written even if sentences that the snapshot shares with the
+   * corpus are edited meanwhile.
+   *
+   * @param snapshot
+   * @param os
+   * @throws IOException
+   */
+  static void write(Snapshot snapshot, OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os,
+	1 << 16));
+    out.writeInt(magic);
+    out.writeShort(version);
+    writeString(out, snapshot.corpus.language);
+    int n = snapshot.size();
+    writeVarint(out, n);
+    Vocabulary dictionary = new Vocabulary();
+    Map<Node, Integer> docs = new HashMap<Node, Integer>();
+    for (int i = 0; i < n; i++)
+      write(out, snapshot.get(i), dictionary, docs);
+    out.flush();
+  }
+
+  private static void write(DataOutputStream out, Sentence sent,
+      Vocabulary dictionary, Map<Node, Integer> docs) throws IOException {
+    writeString(out, sent.id);
+    int length = sent.length();
+    writeVarint(out, length);
+    for (String[] column : columns(sent))
+      for (int i = 0; i < length; i++)
+	writeValue(out, column[i], dictionary);
+    for (int i = 0; i < length; i++) {
+      int head = sent.parents[i];
+      // 0 is no link, 1 is root, others are offsets
+      writeVarint(out, head == 0 ? 0 : head == Integer.MAX_VALUE ? 1
+	  : ((head << 1) ^ (head >> 31)) + 2);
+    }
+    // context
+    Node context = sent.context;
+    if (context != null && context.getNodeName().equals("doc")) {
+      out.writeByte(docContext);
+      Integer doc = docs.get(context);
+      if (doc == null) {
+	writeVarint(out, docs.size());
+	docs.put(context, docs.size());
+	writeString(out, ((Element)context).getAttribute("id"));
+	writeString(out, ((Element)context).getAttribute("url"));
+      } else
+	writeVarint(out, doc);
+    } else if (sent.meta != null) {
+      out.writeByte(metaContext);
+      writeString(out, sent.meta.toString());
+    } else
+      out.writeByte(noContext);
+    // extras
+    MultiWords mws = sent.multiwords;
+    if (mws != null && mws.size() > 0) {
+      out.writeByte(multiwordExtras);
+      writeVarint(out, mws.size());
+      for (int m = 0; m < mws.size(); m++) {
+	writeVarint(out, mws.first(m) + 1);
+	writeVarint(out, mws.last(m) + 1);
+	writeValue(out, mws.form(m), dictionary);
+	writeValue(out, mws.rest(m), dictionary);
+      }
+    } else if (sent.extras == null || sent.extras.isEmpty())
+      out.writeByte(noExtras);
+    else {
+      out.writeByte(xmlExtras);
+      for (int i = 0; i < length; i++) {
+	Extra extra = i < sent.extras.size() ? sent.extras.get(i) : null;
+	writeString(out, extra == null ? null : extra.getXml());
+      }
+    }
+  }
+
+  /**
+   * Read a corpus in binary format.
+   *
+   * @param file
+   * @param corpus where to store language and values.
+   * @return the sentences read.
+   * @throws IOException
+   */
+  static Vector<Sentence> read(File file, Corpus corpus) throws Exception {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+	Gzip.open(file, corpus.progress), 1 << 16));
+    try {
+      if (in.readInt() != magic)
+	throw new IOException("not a DGA binary corpus: " + file);
+      int v = in.readShort();
+      if (v != version)
+	throw new IOException("unsupported version " + v + " of binary corpus: "
+	    + file);
+      corpus.language = readString(in);
+      int n = readVarint(in);
+      Vector<Sentence> sentences = new Vector<Sentence>(n);
+      Vector<String> strings = new Vector<String>();
+      Document document = DocumentBuilderFactory.newInstance()
+	  .newDocumentBuilder().newDocument();
+      Vector<Node> docs = new Vector<Node>();
+      for (int i = 0; i < n; i++)
+	sentences.add(read(in, strings, corpus.vocabulary, document, docs));
+      return sentences;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static Sentence read(DataInputStream in, Vector<String> strings,
+      Vocabulary vocabulary, Document document, Vector<Node> docs)
+      throws IOException {
+    Sentence sent = new Sentence();
+    sent.id = readString(in);
+    int length = readVarint(in);
+    sent.forms = new String[length];
+    sent.lemmas = new String[length];
+    sent.coarseTags = new String[length];
+    sent.tags = new String[length];
+    sent.morphos = new String[length];
+    sent.deps = new String[length];
+    sent.pheads = new String[length];
+    sent.pdeprels = new String[length];
+    sent.parents = new int[length];
+    for (String[] column : columns(sent))
+      for (int i = 0; i < length; i++)
+	column[i] = readValue(in, strings, vocabulary);
+    for (int i = 0; i < length; i++) {
+      int head = readVarint(in);
+      if (head == 1)
+	sent.parents[i] = Integer.MAX_VALUE;
+      else if (head > 1) {
+	head -= 2;
+	sent.parents[i] = (head >>> 1) ^ -(head & 1);
+      }
+    }
+    switch (in.readByte()) {
+    case metaContext:
+      String meta = readString(in);
+      if (meta != null) sent.meta = Metadata.parse(meta, vocabulary);
+      break;
+    case docContext:
+      int doc = readVarint(in);
+      if (doc == docs.size()) {
+	Element element = document.createElement("doc");
+	element.setAttribute("id", readString(in));
+	element.setAttribute("url", readString(in));
+	docs.add(element);
+      }
+      sent.context = docs.get(doc);
+      break;
+    }
+    switch (in.readByte()) {
+    case multiwordExtras:
+      int count = readVarint(in);
+      sent.multiwords = new MultiWords(count);
+      for (int m = 0; m < count; m++) {
+	int first = readVarint(in) - 1;
+	int last = readVarint(in) - 1;
+	String form = readValue(in, strings, vocabulary);
+	String rest = readValue(in, strings, vocabulary);
+	sent.multiwords.add(first, last, form, rest);
+      }
+      break;
+    case xmlExtras:
+      sent.extras = new Vector<Extra>(length);
+      for (int i = 0; i < length; i++) {
+	String xml = readString(in);
+	sent.extras.add(xml == null ? null : new Extra(xml));
+      }
+      break;
+    }
+    return sent;
+  }
+
+  /**
+   * @return the string columns of sent, in the order they are written.
+   */
+  private static String[][] columns(Sentence sent) {
+    int n = sent.length();
+    return new String[][] { sent.forms, sent.lemmas, column(sent.coarseTags, n),
+	column(sent.tags, n), column(sent.morphos, n), column(sent.deps, n),
+	column(sent.pheads, n), column(sent.pdeprels, n) };
+  }
+
+  private static String[] column(String[] column, int n) {
+    return column == null ? new String[n] : column;
+  }
+
+  /**
+   * Write a possibly null value as its code in dictionary, followed by the
+   * value if it is new.
+   */
+  private static void writeValue(DataOutput out, String value,
+      Vocabulary dictionary) throws IOException {
+    if (value == null) {
+      writeVarint(out, 0);
+      return;
+    }
+    int size = dictionary.size();
+    int code = dictionary.code(value);
+    writeVarint(out, code + 1);
+    if (code == size) writeString(out, value);
+  }
+
+  /**
+   * Read a value written by writeValue(), adding it to strings if new.
+   */
+  private static String readValue(DataInput in, Vector<String> strings,
+      Vocabulary vocabulary) throws IOException {
+    int code = readVarint(in) - 1;
+    if (code < 0) return null;
+    if (code == strings.size())
+      strings.add(vocabulary.intern(readString(in)));
+    else if (code > strings.size())
+      throw new IOException("malformed value code " + code);
+    return strings.get(code);
+  }
+
+  static void writeVarint(DataOutput out, int v) throws IOException {
+    while ((v & ~0x7F) != 0) {
+      out.writeByte((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte(v);
+  }
+
+  static int readVarint(DataInput in) throws IOException {
+    int v = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readByte();
+      v |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return v;
+    }
+    throw new IOException("malformed varint");
+  }
+
+  /**
+   * Write a possibly null string, as its UTF-8 length + 1 followed by bytes.
+   */
+  static void writeString(DataOutput out, String s) throws IOException {
+    if (s == null) {
+      writeVarint(out, 0);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    writeVarint(out, bytes.length + 1);
+    out.write(bytes);
+  }
+
+  static String readString(DataInput in) throws IOException {
+    int len = readVarint(in);
+    if (len == 0) return null;
+    byte[] bytes = new byte[len - 1];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,35 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream reading the remaining bytes of a ByteBuffer.
+ */
+class ByteBufferInputStream extends InputStream {
+
+  ByteBufferInputStream(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  public int read() {
+    return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+  }
+
+  public int read(byte[] b, int off, int len) {
+    if (len == 0) return 0;
+    if (!buffer.hasRemaining()) return -1;
+    len = Math.min(len, buffer.remaining());
+    buffer.get(b, off, len);
+    return len;
+  }
+
+  public int available() {
+    return buffer.remaining();
+  }
+
+  private final ByteBuffer buffer;
+}
@@ -0,0 +1,93 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.util.regex.*;
+
+/**
+ * Compare the speed of splitting CoNLL-U token lines with the regular
+ * expressions formerly used by Corpus against ConllTokenizer.
+ *
+ * Usage: java dga.ConllBenchmark file.conllu [rounds]
+ *
+ * @author Attardi
+ *
+ */
+public class ConllBenchmark {
+
+  /**
+   * Receives a value computed from the fields split, so that splitting
+   * cannot be optimized away.
+   */
+  static volatile long sink;
+
+  /**
+   * Split each line with reCoNLL_U_MW and reCoNLL_U.
+   *
+   * @return number of lines processed.
+   */
+  static long regex(File file) throws IOException {
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+	new FileInputStream(file), "UTF-8"));
+    long lines = 0;
+    long sum = 0;
+    String line;
+    while ((line = in.readLine()) != null) {
+      lines++;
+      if (line.isEmpty() || line.charAt(0) == '#') continue;
+      Matcher m = Corpus.reCoNLL_U_MW.matcher(line);
+      if (m.matches()) continue;
+      m = Corpus.reCoNLL_U.matcher(line);
+      if (!m.matches()) continue;
+      sum += Integer.parseInt(m.group(1)) + Integer.parseInt(m.group(7));
+      for (int i = 2; i <= 10; i++)
+	if (i != 7) sum += m.group(i).length();
+    }
+    in.close();
+    sink = sum;
+    return lines;
+  }
+
+  /**
+   * Split each line with ConllTokenizer.
+   *
+   * @return number of lines processed.
+   */
+  static long tokenizer(File file) throws IOException {
+    ConllTokenizer in = new ConllTokenizer(new FileInputStream(file));
+    long lines = 0;
+    long sum = 0;
+    while (in.nextLine()) {
+      lines++;
+      if (in.isEmpty() || in.first() == '#') continue;
+      if (in.split() < 10 || in.rangeStart(0) >= 0) continue;
+      sum += in.number(0) + in.number(6);
+      for (int i = 1; i < 9; i++)
+	if (i != 6) sum += in.field(i).length();
+      sum += in.rest(9).length();
+    }
+    in.close();
+    sink = sum;
+    return lines;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: java dga.ConllBenchmark file.conllu [rounds]");
+      System.exit(1);
+    }
+    File file = new File(args[0]);
+    int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+    for (int r = 0; r < rounds; r++) {
+      long t0 = System.nanoTime();
+      long lines = regex(file);
+      long t1 = System.nanoTime();
+      tokenizer(file);
+      long t2 = System.nanoTime();
+      System.out.printf("round %d: regex %,.0f lines/s, tokenizer %,.0f lines/s%n",
+	  r + 1, lines * 1e9 / (t1 - t0), lines * 1e9 / (t2 - t1));
+    }
+  }
+}
@@ -0,0 +1,264 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits the lines of a CoNLL file into tab separated fields.
+ * Works directly on the UTF-8 bytes read into a reusable buffer: field
+ * boundaries are kept as offsets in the buffer and Strings are only built
+ * for the fields actually requested.
+ * Numeric fields are parsed without creating any object.
+ *
+ * @author Attardi
+ *
+ */
+class ConllTokenizer {
+
+  static final int bufferSize = 1 << 16;
+
+  /**
+   * Maximum number of fields split in a line.
+   * Further tabs belong to the last field.
+   */
+  static final int maxFields = 12;
+
+  ConllTokenizer(InputStream is) {
+    this.is = is;
+    this.buf = new byte[bufferSize];
+  }
+
+  /**
+   * Create a tokenizer over bytes which are the whole input, using them as
+   * buffer.
+   *
+   * @param data
+   */
+  ConllTokenizer(byte[] data) {
+    this.is = null;
+    this.buf = data;
+    this.end = data.length;
+    this.eof = true;
+  }
+
+  /**
+   * Advance to next line.
+   *
+   * @return false at end of input.
+   * @throws IOException
+   */
+  boolean nextLine() throws IOException {
+    offset += next - start;
+    start = next;
+    int nl = indexOf('\n', start, end);
+    while (nl < 0 && !eof) {
+      int scanned = end - start;
+      fill();
+      nl = indexOf('\n', start + scanned, end);
+    }
+    if (nl < 0) {
+      if (start == end) return false; // no more lines
+      nl = end;	// last line without terminator
+      next = end;
+    } else
+      next = nl + 1;
+    limit = (nl > start && buf[nl - 1] == '\r') ? nl - 1 : nl;
+    lineNumber++;
+    fields = 0;
+    return true;
+  }
+
+  /**
+   * Read more bytes, moving the current line to the beginning of buffer.
+   */
+  private void fill() throws IOException {
+    if (start > 0) {
+      System.arraycopy(buf, start, buf, 0, end - start);
+      end -= start;
+      next -= start;
+      start = 0;
+    }
+    if (end == buf.length) {
+      byte[] larger = new byte[2 * buf.length];
+      System.arraycopy(buf, 0, larger, 0, end);
+      buf = larger;
+    }
+    int n = is.read(buf, end, buf.length - end);
+    if (n < 0) eof = true;
+    else end += n;
+  }
+
+  private int indexOf(int b, int from, int to) {
+    for (int i = from; i < to; i++)
+      if (buf[i] == b) return i;
+    return -1;
+  }
+
+  /**
+   * @return whether the current line is empty.
+   */
+  boolean isEmpty() {
+    return limit == start;
+  }
+
+  /**
+   * @return the first byte of the current line, or -1 if empty.
+   */
+  int first() {
+    return isEmpty() ? -1 : buf[start];
+  }
+
+  /**
+   * @return the current line.
+   */
+  String line() {
+    return new String(buf, start, limit - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Split the current line at tabs.
+   *
+   * @return the number of fields.
+   */
+  int split() {
+    if (fields > 0) return fields;
+    int b = start;
+    fieldStart[0] = b;
+    fields = 1;
+    for (int i = b; i < limit && fields < maxFields; i++) {
+      if (buf[i] == '\t') {
+	fieldEnd[fields - 1] = i;
+	fieldStart[fields++] = i + 1;
+      }
+    }
+    fieldEnd[fields - 1] = limit;
+    return fields;
+  }
+
+  /**
+   * @return the i-th field of the current line.
+   */
+  String field(int i) {
+    return new String(buf, fieldStart[i], fieldEnd[i] - fieldStart[i],
+	StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the rest of the line, starting from the i-th field.
+   */
+  String rest(int i) {
+    return new String(buf, fieldStart[i], limit - fieldStart[i],
+	StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the i-th field of the current line, as shared instance from
+   *         vocabulary.
+   */
+  String field(int i, Vocabulary vocabulary) {
+    return vocabulary.intern(buf, fieldStart[i], fieldEnd[i] - fieldStart[i]);
+  }
+
+  /**
+   * @return the rest of the line, starting from the i-th field, as shared
+   *         instance from vocabulary.
+   */
+  String rest(int i, Vocabulary vocabulary) {
+    return vocabulary.intern(buf, fieldStart[i], limit - fieldStart[i]);
+  }
+
+  /**
+   * @return the length in bytes of the i-th field.
+   */
+  int length(int i) {
+    return fieldEnd[i] - fieldStart[i];
+  }
+
+  /**
+   * Parse the i-th field as a non negative number.
+   *
+   * @return the number, or -1 if the field is not made just of digits.
+   */
+  int number(int i) {
+    return number(fieldStart[i], fieldEnd[i]);
+  }
+
+  /**
+   * Parse the number in buf[from, to).
+   *
+   * @return the number, or -1 if the bytes are not just digits.
+   */
+  private int number(int from, int to) {
+    if (from == to || to - from > 9) return -1;
+    int n = 0;
+    for (int i = from; i < to; i++) {
+      int d = buf[i] - '0';
+      if (d < 0 || d > 9) return -1;
+      n = n * 10 + d;
+    }
+    return n;
+  }
+
+  /**
+   * Parse the i-th field as a range of the form start-end.
+   *
+   * @return the start of the range, or -1 if the field is not a range.
+   */
+  int rangeStart(int i) {
+    int dash = indexOf('-', fieldStart[i], fieldEnd[i]);
+    if (dash < 0 || number(dash + 1, fieldEnd[i]) < 0) return -1;
+    return number(fieldStart[i], dash);
+  }
+
+  /**
+   * Parse the i-th field as a range of the form start-end.
+   *
+   * @return the end of the range, or -1 if the field is not a range.
+   */
+  int rangeEnd(int i) {
+    int dash = indexOf('-', fieldStart[i], fieldEnd[i]);
+    if (dash < 0 || number(fieldStart[i], dash) < 0) return -1;
+    return number(dash + 1, fieldEnd[i]);
+  }
+
+  /**
+   * @return the number of the current line, starting from 1.
+   */
+  int getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * @return the byte offset in the input of the start of current line.
+   */
+  long lineOffset() {
+    return offset;
+  }
+
+  /**
+   * @return the byte offset in the input of the start of next line.
+   */
+  long nextOffset() {
+    return offset + next - start;
+  }
+
+  void close() throws IOException {
+    if (is != null) is.close();
+  }
+
+  private final InputStream is;	///< null if all input is in buf
+  private byte[]	    buf;
+  private int		    start      = 0;	///< start of current line
+  private int		    limit      = 0;	///< end of current line, excluding terminator
+  private int		    next       = 0;	///< start of next line
+  private int		    end	       = 0;	///< end of data in buf
+  private boolean	    eof	       = false;
+  private int		    lineNumber = 0;
+  private long		    offset     = 0;	///< offset in input of current line
+  private int		    fields     = 0;	///< number of fields, 0 if not yet split
+  private final int[]	    fieldStart = new int[maxFields];
+  private final int[]	    fieldEnd   = new int[maxFields];
+}
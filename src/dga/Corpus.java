@@ -4,14 +4,18 @@
 package dga;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Vector;
 import java.util.regex.*;
-import java.text.ParseException;
 
-import javax.xml.parsers.*;
-import javax.xml.validation.*;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -25,27 +29,20 @@ import org.w3c.dom.*;
  */
 public class Corpus {
 
-  DocumentBuilderFactory docFactory;
-  static final String    schemaFile = "/dga.xsd";
-
   public Corpus() {
     sentences = new Vector<Sentence>();
   }
 
   public Corpus(InputStream is) throws Exception {
-    if (docFactory == null) {
-      docFactory = DocumentBuilderFactory.newInstance();
-      // create a SchemaFactory capable of understanding WXS schemas
-      SchemaFactory factory = SchemaFactory
-	  .newInstance(javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI);
-      // load a WXS schema, represented by a Schema instance
-      // Schema schema = factory.newSchema(new File(schemaFile));
-      java.net.URL url = Corpus.class.getResource(schemaFile);
-      Schema schema = factory.newSchema(url);
-      docFactory.setSchema(schema);
+    if (validate) {
+      // the stream must be read twice
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      is.transferTo(bytes);
+      XmlCorpusReader.validate(new StreamSource(new ByteArrayInputStream(
+	  bytes.toByteArray())));
+      is = new ByteArrayInputStream(bytes.toByteArray());
     }
-    DocumentBuilder parser = docFactory.newDocumentBuilder();
-    getSentences(parser.parse(is));
+    sentences = parseXml(is);
   }
 
   public Corpus(File file) throws Exception {
@@ -70,7 +67,118 @@ public class Corpus {
    * Annotation scheme.
    */
   public String scheme = "UD";
+
+  /**
+   * Dictionary shared by the sentences of the corpus, so that each distinct
+   * form, lemma, tag or label is stored once.
+   */
+  final Vocabulary vocabulary = new Vocabulary();
+
+  /**
+   * Whether to load large CoNLL files using all available cores.
+   */
+  public static boolean parallel = true;
+
+  /**
+   * Whether to validate XML files against the DGA schema while loading.
+   */
+  public static boolean validate = Boolean.getBoolean("dga.validate");
+
+  /**
+   * Whether to keep a binary copy (.dgab) next to each CoNLL file opened,
+   * which is read instead of the source as long as it is not older.
+   */
+  public static boolean cache = Boolean.getBoolean("dga.cache");
+
+  /**
+   * Number of sentences read between notifications while loading.
+   */
+  static final int batch = 1000;
   
+  /**
+   * Open a corpus file, choosing a representation suited to its size:
+   * large CoNLL files are memory mapped and decoded on demand.
+   * 
+   * @param file
+   * @return the corpus.
+   * @throws Exception
+   */
+  public static Corpus load(File file) throws Exception {
+    Corpus corpus = create(file);
+    corpus.load((LoadProgress)null);
+    corpus.recover();
+    return corpus;
+  }
+
+  /**
+   * Create an empty corpus for file, of the representation suited to its
+   * size, to be filled by load().
+   */
+  static Corpus create(File file) {
+    String path = file.getPath();
+    Corpus corpus;
+    if (file.length() > MappedCorpus.threshold && !path.endsWith(".xml")
+	&& !path.endsWith(".txt") && !Gzip.applies(file))
+      corpus = new MappedCorpus();
+    else
+      corpus = new Corpus();
+    corpus.docFile = file;
+    return corpus;
+  }
+
+  /**
+   * Read the sentences of docFile.
+   * Can be called from a background thread: the sentences read are
+   * announced to listeners every batch, and reading stops with an
+   * InterruptedIOException if progress is cancelled.
+   *
+   * @param progress where to report the bytes read, or null.
+   * @throws Exception
+   */
+  void load(LoadProgress progress) throws Exception {
+    this.progress = progress;
+    try {
+      read();
+    } finally {
+      this.progress = null;
+    }
+    announce();
+  }
+
+  /**
+   * Recover the edits not saved, replaying the journal of docFile, and
+   * record further edits in it.
+   * Must be called after load() on the thread where sentences are edited,
+   * i.e. the Event Dispatch Thread for a corpus shown in a CorpusPane.
+   */
+  void recover() {
+    journal = new EditJournal(docFile);
+    try {
+      recovered = journal.replay(this);
+    } catch (IOException e) {
+      journal = null;
+    }
+  }
+
+  /**
+   * Read the sentences of docFile.
+   */
+  void read() throws Exception {
+    sentences = open(docFile);
+  }
+
+  /**
+   * Notify listeners of the sentences read since last announced.
+   */
+  void announce() {
+    int n = size();
+    if (n <= announced) return;
+    int first = announced;
+    announced = n;
+    for (CorpusChangeListener listener : listeners())
+      listener.sentencesAdded(this, first, n - 1);
+  }
+
   /**
    * Read corpus file.
    * 
@@ -78,25 +186,64 @@ public class Corpus {
    * @throws Exception
    */
   public Vector<Sentence> open(File file) throws Exception {
-    if (file.getPath().endsWith(".xml")) {
-      if (docFactory == null) {
-	docFactory = DocumentBuilderFactory.newInstance();
-	// create a SchemaFactory capable of understanding WXS schemas
-	SchemaFactory factory = SchemaFactory
-	    .newInstance(javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI);
-	// load a WXS schema, represented by a Schema instance
-	// Schema schema = factory.newSchema(new File(schemaFile));
-	java.net.URL url = Corpus.class.getResource(schemaFile);
-	Schema schema = factory.newSchema(url);
-	docFactory.setSchema(schema);
+    String path = Gzip.path(file);	// format of compressed files
+    if (path.endsWith(BinaryCorpus.extension))
+      return BinaryCorpus.read(file, this);
+    if (path.endsWith(".xml")) {
+      if (validate) {
+	InputStream is = Gzip.open(file);
+	try {
+	  XmlCorpusReader.validate(new StreamSource(is, file.toURI().toString()));
+	} finally {
+	  is.close();
+	}
       }
-      DocumentBuilder parser = docFactory.newDocumentBuilder();
-      // DocumentBuilder interns XML names, so we can use == for string comparisons
-      Document dom = parser.parse(file);
-      return getSentences(dom);
-    } else if (file.getPath().endsWith(".txt"))
+      return parseXml(Gzip.open(file, progress));
+    } else if (path.endsWith(".txt"))
       return parseText(file);
-    return parseUD(file);	// subsumes parseConll
+    File cached = new File(file.getPath() + BinaryCorpus.extension);
+    if (cache && cached.lastModified() >= file.lastModified()) {
+      try {
+	if (progress != null) progress.reset(cached.length());
+	return BinaryCorpus.read(cached, this);
+      } catch (InterruptedIOException e) {
+	throw e;
+      } catch (Exception e) {
+	// stale or damaged copy: read the source
+	if (progress != null) progress.reset(file.length());
+      }
+    }
+    if (Gzip.applies(file)) {
+      // offsets within decompressed data cannot be used for saving
+      ByteBuffer data = null;
+      // the last member tells the size of a single member file, the
+      // compressed size is a lower bound for multiple members
+      if (parallel && ParallelLoader.applies(Math.max(Gzip.size(file),
+	  file.length())))
+	data = Gzip.inflate(file);
+      if (data != null) {
+	// progress is now in the inflated data
+	if (progress != null) progress.reset(data.limit());
+	sentences = ParallelLoader.load(data, true, this);
+      } else
+	sentences = parseUD(Gzip.open(file, progress));
+    } else {
+      spans = true;
+      sourceLength = file.length();
+      sourceModified = file.lastModified();
+      if (parallel && ParallelLoader.applies(file.length()))
+	sentences = ParallelLoader.load(file, true, this);
+      else
+	sentences = parseUD(Gzip.open(file, progress));	// subsumes parseConll
+    }
+    if (cache) {
+      try {
+	BinaryCorpus.write(this, cached);
+      } catch (IOException e) {
+	cached.delete();
+      }
+    }
+    return sentences;
   }
   
   /**
@@ -108,7 +255,7 @@ public class Corpus {
    * @throws Exception
    */
   public Vector<Sentence> parseText(File file) throws Exception {
-    FileInputStream fis = new FileInputStream(file);
+    InputStream fis = Gzip.open(file);
     BufferedReader in = new BufferedReader(new InputStreamReader(fis, "UTF-8"));
     String line;
     StringBuilder text = new StringBuilder();
@@ -175,80 +322,7 @@ public class Corpus {
   }
   
   public Vector<Sentence> parseConll(InputStream is) throws Exception {
-    BufferedReader in = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-    Vector<Sentence> sentences = new Vector<Sentence>();
-    Vector<String> words = new Vector<String>();
-    Vector<String> lemmas = new Vector<String>();
-    Vector<String> ctags = new Vector<String>();
-    Vector<String> tags = new Vector<String>();
-    Vector<String> morphos = new Vector<String>();
-    Vector<Integer> parents = new Vector<Integer>();
-    Vector<String> deps = new Vector<String>();
-    Vector<String> pheads = new Vector<String>();
-    Vector<String> pdeprels = new Vector<String>();
-    Vector<Node> extras = null;
-    Element doc = null; // /< the current document
-    docFactory = DocumentBuilderFactory.newInstance();
-    DocumentBuilder builder = docFactory.newDocumentBuilder();
-    Document document = builder.newDocument();
-    String line;
-    int count = 0;
-    while ((line = in.readLine()) != null) {
-      Matcher d = reDoc.matcher(line);
-      if (d.matches()) {
-	if (line.charAt(1) == '/') doc = null;
-	else {
-	  doc = document.createElement("doc");
-	  doc.setAttribute("id", d.group(4));
-	  doc.setAttribute("url", d.group(7));
-	}
-	continue;
-      }
-      if (line.isEmpty()) {
-	String sid = Integer.toString(count++);
-	sentences.add(new Sentence(sid, words, lemmas, ctags, tags, morphos,
-	    parents, deps, pheads, pdeprels, extras, doc));
-	words.clear();
-	lemmas.clear();
-	ctags.clear();
-	tags.clear();
-	morphos.clear();
-	parents.clear();
-	deps.clear();
-	pheads.clear();
-	pdeprels.clear();
-	continue;
-      }
-      Matcher m = reCoNLL_X.matcher(line);
-      if (!m.matches()) continue;
-      int id = Integer.parseInt(m.group(1));
-      if (id != words.size() + 1) continue;
-      // add orth
-      words.add(m.group(2));
-      // add lemma
-      lemmas.add(m.group(3));
-      // add cpos
-      ctags.add(m.group(4));
-      // add pos
-      tags.add(m.group(5));
-      // add feats
-      morphos.add(m.group(6));
-      // add dependency
-      int head = Integer.parseInt(m.group(7));
-      if (head == 0) head = Integer.MAX_VALUE;
-      else head -= id;
-      parents.add(head);
-      deps.add(m.group(8));
-      // add pheads
-      pheads.add(m.group(9));
-      // add pdeprels
-      pdeprels.add(m.group(10));
-    }
-    if (words.size() > 0) // leftover
-    sentences.add(new Sentence(Integer.toString(count), words, lemmas, ctags,
-	tags, morphos, parents, deps, pheads, pdeprels, extras, doc));
-    in.close();
-    return sentences;
+    return read(new CorpusReader(is, false, vocabulary));
   }
 
   // id form lemma cpostag postag feats head deprel deps misc
@@ -272,88 +346,29 @@ public class Corpus {
   }
 
   public Vector<Sentence> parseUD(InputStream is) throws Exception {
-    BufferedReader in = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-    Vector<Sentence> sentences = new Vector<Sentence>();
-    Vector<String> words = new Vector<String>();
-    Vector<String> lemmas = new Vector<String>();
-    Vector<String> ctags = new Vector<String>();
-    Vector<String> tags = new Vector<String>();
-    Vector<String> morphos = new Vector<String>();
-    Vector<Integer> parents = new Vector<Integer>();
-    Vector<String> deprels = new Vector<String>();
-    Vector<String> depss = new Vector<String>();
-    Vector<String> miscs = new Vector<String>();
-    Vector<Node> multiwords = new Vector<Node>();
-    docFactory = DocumentBuilderFactory.newInstance();
-    DocumentBuilder builder = docFactory.newDocumentBuilder();
-    Document document = builder.newDocument();
-    Element sent = document.createElement("sent"); ///< the current sentence
-    String line;
-    int count = 0;	// sentences
-    int ln = 0;		// line number
-    while ((line = in.readLine()) != null) {
-      ln++;
-      if (line.isEmpty()) {
-	String sid = Integer.toString(count++);
-	sentences.add(new Sentence(sid, words, lemmas, ctags, tags, morphos,
-	    parents, deprels, depss, miscs, multiwords, sent));
-	words.clear();
-	lemmas.clear();
-	ctags.clear();
-	tags.clear();
-	morphos.clear();
-	parents.clear();
-	deprels.clear();
-	depss.clear();
-	miscs.clear();
-	multiwords = new Vector<Node>();
-	sent = document.createElement("sent");
-	continue;
-      }
-      if (line.charAt(0) == '#') {
-	sent.setAttribute("meta", sent.getAttribute("meta") + line + "\n");
-	continue;
-      }
-      Matcher m = reCoNLL_U_MW.matcher(line);
-      if (m.matches()) {
-	// build multiword
-	Element mw = document.createElement("MultiWord");
-	mw.setAttribute("start", m.group(1));
-	mw.setAttribute("end", m.group(2));
-	mw.setAttribute("value", m.group(3));
-	multiwords.add(mw);
-	continue;
+    return read(new CorpusReader(is, true, vocabulary));
+  }
+
+  /**
+   * Collect all the sentences from a reader.
+   * 
+   * @param reader
+   * @return the sentences read.
+   * @throws Exception
+   */
+  Vector<Sentence> read(CorpusReader reader) throws Exception {
+    // while loading, show sentences as they are read
+    Vector<Sentence> sentences = (progress != null) ? this.sentences
+	: new Vector<Sentence>();
+    try {
+      Sentence sentence;
+      while ((sentence = reader.read()) != null) {
+	sentences.add(sentence);
+	if (progress != null && sentences.size() % batch == 0) announce();
       }
-      m = reCoNLL_U.matcher(line);
-      if (!m.matches())
-	throw new ParseException("malformed input file at line: " + ln, ln);
-      int id = Integer.parseInt(m.group(1));
-      if (id != words.size() + 1) continue;
-      // add orth
-      words.add(m.group(2));
-      // add lemma
-      lemmas.add(m.group(3));
-      // add cpos
-      ctags.add(m.group(4));
-      // add pos
-      tags.add(m.group(5));
-      // add feats
-      morphos.add(m.group(6));
-      // add dependency
-      int head = Integer.parseInt(m.group(7));
-      if (head == 0) head = Integer.MAX_VALUE;
-      else head -= id;
-      parents.add(head);
-      deprels.add(m.group(8));
-      // add depss
-      depss.add(m.group(9));
-      // add miscs
-      miscs.add(m.group(10));
+    } finally {
+      reader.close();
     }
-    if (words.size() > 0) // leftover
-      sentences.add(new Sentence(Integer.toString(count), words, lemmas, ctags,
-	  tags, morphos, parents, deprels, depss, miscs, multiwords, sent));
-    in.close();
     return sentences;
   }
 
@@ -371,10 +386,10 @@ public class Corpus {
 	+ "\n</TITLE>\n");
     s.append("<style TYPE='text/css'> A {text-decoration: none; color: #000000 } </STYLE>");
     s.append("</HEAD>\n<BODY>\n");
-    int i = 0;
-    for (Sentence sent : sentences) {
+    for (int i = 0; i < size(); i++) {
+      Sentence sent = getSentence(i);
       s.append("<DIV bgcolor=" + (i % 2 == 0 ? evenLineColor : oddLineColor)
-	  + "><A href=\"" + i++ + "\">");
+	  + "><A href=\"" + i + "\">");
       for (String word : sent.forms)
 	s.append(word + " ");
       s.append("</A></DIV>\n");
@@ -393,122 +408,103 @@ public class Corpus {
     return (id < sentences.size()) ? sentences.get(id) : null;
   }
 
+  /**
+   * @return the number of sentences in the corpus.
+   */
+  public int size() {
+    return sentences.size();
+  }
+
+  /**
+   * Add sentence to the corpus, which adopts it: its values are replaced
+   * with the shared instances of the vocabulary of the corpus, hence it
+   * must not belong to another corpus.
+   */
   public void add(Sentence sentence) {
+    sentence.intern(vocabulary);	// e.g. from a parser
+    int i = size();
     sentences.add(sentence);
+    for (CorpusChangeListener listener : listeners())
+      listener.sentencesAdded(this, i, i);
+  }
+
+  public void addCorpusChangeListener(CorpusChangeListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeCorpusChangeListener(CorpusChangeListener listener) {
+    listeners.remove(listener);
+  }
+
+  private CorpusChangeListener[] listeners() {
+    return listeners.toArray(new CorpusChangeListener[0]);
+  }
+
+  /**
+   * @return the index of the forms and lemmas of the corpus, built on
+   *	     first use and then kept up to date with its changes.
+   *	     Waits for the index to be built, hence it should not be called
+   *	     on the Event Dispatch Thread.
+   */
+  public TokenIndex tokenIndex() {
+    synchronized (indexLock) {
+      if (tokenIndex == null) tokenIndex = new TokenIndex(this);
+      return tokenIndex;
+    }
+  }
+
+  /**
+   * @return the index of the forms and lemmas of the corpus, or null if not
+   *	     built yet, in which case it is built in background.
+   *	     Must be called on the Event Dispatch Thread.
+   */
+  public TokenIndex builtTokenIndex() {
+    TokenIndex index = tokenIndex;
+    if (index == null && !indexing) {
+      indexing = true;
+      new javax.swing.SwingWorker<TokenIndex, Object>() {
+	protected TokenIndex doInBackground() {
+	  return tokenIndex();
+	}
+      }.execute();
+    }
+    return index;
   }
 
   /**
-   * Turn the DOM into a corpus.
+   * Notify listeners that sentence i has been edited.
+   */
+  public void sentenceChanged(int i) {
+    for (CorpusChangeListener listener : listeners())
+      listener.sentenceChanged(this, i);
+  }
+
+  /**
+   * Read a corpus in DGA XML format.
    * 
-   * @param dom
-   * @return
+   * @param is
+   * @return the sentences read.
+   * @throws Exception
    */
-  Vector<Sentence> getSentences(Document dom) {
-    Vector<Sentence> sentences = new Vector<Sentence>();
-    Element element = dom.getDocumentElement();
-    Node lang = element.getAttributes().getNamedItem("language");
-    if (lang != null) language = lang.getNodeValue();
-    for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
-      if (node.getNodeName() != "s") continue;
-      String sid = null;
-      Node idn = node.getAttributes().getNamedItem("id");
-      if (idn != null) sid = idn.getNodeValue();
-      Vector<String> words = new Vector<String>();
-      Vector<String> lemmas = new Vector<String>();
-      Vector<String> cposTags = new Vector<String>();
-      Vector<String> posTags = new Vector<String>();
-      Vector<String> morphos = new Vector<String>();
-      Vector<Integer> depIndex = new Vector<Integer>();
-      Vector<String> relTypes = new Vector<String>();
-      Vector<Node> extras = new Vector<Node>();
-      Node context = null;
-      int tok = -1;
-      for (Node token = node.getFirstChild(); token != null; token = token.getNextSibling()) {
-	if (token.getNodeName() == "tok") {
-	  tok++;
-	  words.add("");
-	  lemmas.add("");
-	  cposTags.add("");
-	  posTags.add("");
-	  morphos.add("");
-	  depIndex.add(0);
-	  relTypes.add("");
-	  extras.add(null);
-	  String gender = "";
-	  String number = "";
-	  String person = "";
-	  String feats = "";
-	  for (Node child = token.getFirstChild(); child != null; child = child
-	      .getNextSibling()) {
-	    String childName = child.getNodeName();
-	    if (childName == "orth") {
-	      words.set(tok, child.getFirstChild().getNodeValue());
-	    } else if (childName == "lemma") {
-	      lemmas.set(tok, child.getFirstChild().getNodeValue());
-	    } else if (childName == "cpos") {
-	      String cposTag = child.getFirstChild().getNodeValue();
-	      cposTags.set(tok, cposTag);
-	    } else if (childName == "pos") {
-	      String posTag = child.getFirstChild().getNodeValue();
-	      posTags.set(tok, posTag);
-	    } else if (childName == "gender") {
-	      gender = child.getFirstChild().getNodeValue();
-	    } else if (childName == "number") {
-	      number = child.getFirstChild().getNodeValue();
-	    } else if (childName == "person") {
-	      person = child.getFirstChild().getNodeValue();
-	    } else if (childName == "feats") { // back compatibility
-	      feats = child.getFirstChild().getNodeValue();
-	    } else if (childName == "morph") {
-	      feats = child.getFirstChild().getNodeValue();
-	    } else if (childName == "dep") {
-	      Node head = child.getAttributes().getNamedItem("head");
-	      if (head != null) {
-		int index = 0;
-		try {
-		  index = Integer.parseInt(head.getNodeValue());
-		} catch (Exception exception) {
-		}
-		// Integer.MAX_VALUE means root link
-		depIndex.set(tok, (index == 0) ? Integer.MAX_VALUE : index
-		    - tok - 1);
-	      }
-	      Node type = child.getAttributes().getNamedItem("type");
-	      if (type != null) {
-		relTypes.set(tok, type.getNodeValue());
-	      }
-	    } else if (childName == "syn") {
-	      // backward compatibility
-	      Node head = child.getAttributes().getNamedItem("head");
-	      if (head != null) {
-		int index = 0;
-		try {
-		  index = Integer.parseInt(head.getNodeValue());
-		} catch (Exception exception) {
-		}
-		// Integer.MAX_VALUE means root link
-		depIndex.set(tok, (index == 0) ? Integer.MAX_VALUE : index
-		    - tok - 1);
-	      }
-	      for (Node attr = child.getFirstChild(); attr != null; attr = attr
-		  .getNextSibling()) {
-		if (attr.getNodeName() == "reltype") {
-		  String reltype = attr.getFirstChild().getNodeValue();
-		  relTypes.set(tok, reltype);
-		}
-	      }
-	    } else if (childName == "extra") {
-	      // save additional elements
-	      extras.set(tok, child.cloneNode(true));
-	    }
-	  }
-	  morphos.set(tok, (feats == "" ? gender + number + person : feats));
+  public Vector<Sentence> parseXml(InputStream is) throws Exception {
+    XmlCorpusReader reader = new XmlCorpusReader(is, vocabulary);
+    try {
+      Vector<Sentence> sentences;
+      if (progress == null)
+	sentences = reader.readAll();
+      else {
+	sentences = this.sentences;
+	Sentence sentence;
+	while ((sentence = reader.read()) != null) {
+	  sentences.add(sentence);
+	  if (sentences.size() % batch == 0) announce();
 	}
       }
-      sentences.add(new Sentence(sid, words, lemmas, cposTags, posTags,
-	  morphos, depIndex, relTypes, null, null, extras, context));
+      if (reader.getLanguage() != null) language = reader.getLanguage();
+      return sentences;
+    } finally {
+      reader.close();
     }
-    return sentences;
   }
 
   /**
@@ -532,46 +528,259 @@ public class Corpus {
   }
 
   boolean save(File file) {
+    Snapshot snapshot = snapshot();
+    if (!save(file, snapshot)) return false;
+    saved(snapshot);
+    return true;
+  }
+
+  /**
+   * @return a snapshot of the current state of the corpus, copying the
+   *	     sentences changed since last save.
+   */
+  Snapshot snapshot() {
+    Snapshot snapshot = new Snapshot(this);
+    for (int i = 0; i < snapshot.size(); i++) {
+      Sentence sent = getSentence(i);
+      if (sent.changed()) snapshot.copy(i, sent);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Save snapshot to file.
+   * The file is written to a temporary file which then replaces it, so that
+   * the file is left intact if saving is interrupted.
+   * Can be called from any thread: changes to the corpus are applied later
+   * by saved().
+   * 
+   * @return true if save was successful.
+   */
+  boolean save(File file, Snapshot snapshot) {
+    snapshot.file = file;
+    if (incremental(file)) {
+      try {
+	if (saveIncremental(snapshot)) return true;
+      } catch (IOException e) {
+	return false;
+      }
+    }
     try {
-      FileOutputStream fw = new FileOutputStream(file);
-      BufferedWriter bw = new BufferedWriter(
-	  new OutputStreamWriter(fw, "UTF-8"));
-      if (file.getName().endsWith("xml")) {
-	bw.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-	bw.write("<DGA");
-	if (language != "") bw.write(" language=\"" + language + "\"");
-	bw.write(">\n");
-	for (Sentence sent : sentences) {
-	  bw.write(sent.toString());
-	  bw.write("\n");
-	}
-	bw.write("</DGA>\n");
-      } else {
-	boolean conllu = file.getName().endsWith("conllu");
-	Node doc = null;
-	boolean first = true;
-	for (Sentence sent : sentences) {
-	  if (doc != sent.context) {
-	    doc = sent.context;
-	    if (doc != null && !conllu) {
-	      if (first) first = false;
-	      else bw.write("</doc>\n");
-	      NamedNodeMap attrs = doc.getAttributes();
-	      bw.write("<doc " + attrs.getNamedItem("id") + " "
-		  + attrs.getNamedItem("url") + ">\n");
-	    }
-	  }
-	  bw.write(sent.toTab());
+      File temp = IncrementalWriter.createTemp(file);
+      try {
+	FileOutputStream fos = new FileOutputStream(temp);
+	try {
+	  OutputStream os = Gzip.compress(file, fos);
+	  write(file, snapshot, os);
+	  Gzip.finish(os);
+	  fos.getFD().sync();
+	} finally {
+	  fos.close();
 	}
-	if (doc != null && !conllu) bw.write("</doc>\n");
+	IncrementalWriter.move(temp, file);
+      } finally {
+	temp.delete();
       }
-      bw.close();
       return true;
     } catch (IOException e) {
       return false;
     }
   }
 
+  /**
+   * Write the sentences of snapshot to os, in the format of file.
+   */
+  private void write(File file, Snapshot snapshot, OutputStream os)
+      throws IOException {
+    String name = Gzip.path(file);	// format of compressed files
+    if (name.endsWith(BinaryCorpus.extension)) {
+      BinaryCorpus.write(snapshot, os);
+      return;
+    }
+    BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"),
+	1 << 16);
+    if (name.endsWith("xml")) {
+      bw.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      bw.write("<DGA");
+      if (language != "") bw.write(" language=\"" + language + "\"");
+      bw.write(">\n");
+      for (int i = 0; i < snapshot.size(); i++) {
+	snapshot.get(i).writeXml(bw);
+	bw.write("\n");
+      }
+      bw.write("</DGA>\n");
+    } else {
+      boolean conllu = name.endsWith("conllu");
+      Node doc = null;
+      boolean first = true;
+      for (int i = 0; i < snapshot.size(); i++) {
+	Sentence sent = snapshot.get(i);
+	if (doc != sent.context) {
+	  doc = sent.context;
+	  if (doc != null && !conllu) {
+	    if (first) first = false;
+	    else bw.write("</doc>\n");
+	    NamedNodeMap attrs = doc.getAttributes();
+	    bw.write("<doc " + attrs.getNamedItem("id") + " "
+		+ attrs.getNamedItem("url") + ">\n");
+	  }
+	}
+	sent.writeTab(bw);
+      }
+      if (doc != null && !conllu) bw.write("</doc>\n");
+    }
+    bw.flush();
+  }
+
+  /**
+   * Apply to the corpus the results of saving snapshot: if it was saved to
+   * docFile, sentences saved unchanged since the snapshot are no longer
+   * changed.
+   * Must be called on the thread editing the corpus, after save().
+   */
+  void saved(Snapshot snapshot) {
+    if (docFile == null
+	|| !snapshot.file.getAbsoluteFile().equals(docFile.getAbsoluteFile()))
+      return;
+    if (snapshot.offsets == null)
+      spans = false;		// offsets no longer match
+    else if (!relocate(snapshot))
+      return;
+    if (journal != null) {
+      try {
+	journal.compact(snapshot.journaled);
+      } catch (IOException e) {
+	// it no longer matches docFile: start a new one
+	try {
+	  journal.discard();
+	} catch (IOException ex) {
+	}
+      }
+    }
+    for (Map.Entry<Integer, Sentence> entry : snapshot.copies.entrySet()) {
+      Sentence sent = getSentence(entry.getKey());
+      if (sent != null && sent.sameAs(entry.getValue()))
+	sent.changed(false);
+    }
+  }
+
+  /**
+   * Record the position of sentences in docFile after an incremental save.
+   *
+   * @return false if this was not possible.
+   */
+  boolean relocate(Snapshot snapshot) {
+    for (int i = 0; i < snapshot.size(); i++) {
+      Sentence sent = getSentence(i);
+      sent.offset = snapshot.offsets[i];
+      sent.span = snapshot.spans[i];
+    }
+    sourceLength = snapshot.length;
+    sourceModified = snapshot.modified;
+    return true;
+  }
+
+  /**
+   * Forget the edits recorded in the journal, since they are not going to
+   * be saved.
+   */
+  void discardJournal() {
+    if (journal == null) return;
+    try {
+      journal.discard();
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * @return whether some sentence was changed since last saved.
+   */
+  boolean hasChanges() {
+    for (int i = 0; i < size(); i++)
+      if (getSentence(i).changed()) return true;
+    return false;
+  }
+
+  /**
+   * @return the position of the last occurrence of the ASCII string s in
+   *	     channel, or -1 if not found.
+   * @throws IOException
+   */
+  static long lastIndexOf(FileChannel channel, String s) throws IOException {
+    byte[] pattern = s.getBytes(StandardCharsets.US_ASCII);
+    int block = 1 << 16;
+    ByteBuffer buf = ByteBuffer.allocate(block + pattern.length);
+    long end = channel.size();
+    while (end > 0) {
+      // blocks overlap by the length of pattern
+      long start = Math.max(0, end - block);
+      buf.clear();
+      buf.limit((int)Math.min(buf.capacity(), channel.size() - start));
+      while (buf.hasRemaining())
+	if (channel.read(buf, start + buf.position()) < 0) break;
+      byte[] b = buf.array();
+      for (int i = buf.position() - pattern.length; i >= 0; i--) {
+	int j = 0;
+	while (j < pattern.length && b[i + j] == pattern[j]) j++;
+	if (j == pattern.length) return start + i;
+      }
+      end = start;
+    }
+    return -1;
+  }
+
+  /**
+   * @return whether saving to file can just rewrite the sentences changed
+   *	     since the corpus was read from it.
+   */
+  boolean incremental(File file) {
+    return spans && docFile != null
+	&& file.getAbsoluteFile().equals(docFile.getAbsoluteFile())
+	&& docFile.length() == sourceLength
+	&& docFile.lastModified() == sourceModified;
+  }
+
+  /**
+   * Save snapshot to docFile re-serializing only changed or added sentences:
+   * the bytes of the others are copied from the current file.
+   * 
+   * @return false if sentences are no longer in file order.
+   * @throws IOException
+   */
+  boolean saveIncremental(Snapshot snapshot) throws IOException {
+    int n = snapshot.size();
+    long[] offsets = new long[n];
+    int[] lengths = new int[n];
+    IncrementalWriter out = new IncrementalWriter(docFile);
+    try {
+      long last = 0;		// end of last sentence in file
+      for (int i = 0; i < n; i++) {
+	Sentence sent = snapshot.get(i);
+	if (sent.offset >= 0 && sent.offset < last)
+	  return false;		// reordered
+	if (sent.offset >= 0 && !snapshot.changed(i)) {
+	  offsets[i] = out.map(sent.offset);
+	  lengths[i] = sent.span;
+	  last = sent.offset + sent.span;
+	} else {
+	  long start = (sent.offset >= 0) ? sent.offset : last;
+	  long end = (sent.offset >= 0) ? sent.offset + sent.span : last;
+	  offsets[i] = out.replace(start, end, sent);
+	  lengths[i] = (int)(out.position() - offsets[i]);
+	  last = end;
+	}
+      }
+      out.commit();
+    } finally {
+      out.close();
+    }
+    snapshot.offsets = offsets;
+    snapshot.spans = lengths;
+    snapshot.length = docFile.length();
+    snapshot.modified = docFile.lastModified();
+    return true;
+  }
+
   /**
    * 
    * @param file
@@ -580,67 +789,103 @@ public class Corpus {
   public boolean appendTo(File file) {
     try {
       BufferedWriter bw;
-      if (file.getName().endsWith("xml")) {
-	if (file.exists()) {
-	  // copy old file to tempFile up to ending tag, in case of XML.
-	  File tempFile = File.createTempFile("DGA", "tmp");
-	  FileWriter fw = new FileWriter(tempFile);
-	  FileReader fileReader = new FileReader(file);
-	  BufferedReader br = new BufferedReader(fileReader);
-	  while (true) {
-	    String line = br.readLine();
-	    if (line == null) break;
-	    int len = line.indexOf("</DGA>");
-	    if (len < 0) fw.write(line + "\n");
-	    else {
-	      fw.write(line, 0, len);
-	      break;
-	    }
-	  }
-	  br.close();
-	  fw.close();
-	  file.delete();
-	  tempFile.renameTo(file);
-	  FileOutputStream fos = new FileOutputStream(file, true);
-	  bw = new BufferedWriter(new OutputStreamWriter(fos, "UTF-8"));
-	} else {
+      String path = Gzip.path(file);	// format of compressed files
+      if (path.endsWith(BinaryCorpus.extension)) {
+	// rewrite, since sentences follow the vocabulary
+	Corpus target = file.exists() ? new Corpus(file) : new Corpus();
+	// copies, since target adopts the sentences added
+	for (int i = 0; i < size(); i++)
+	  target.add(getSentence(i).copy());
+	BinaryCorpus.write(target, file);
+	return true;
+      }
+      if (path.endsWith("xml")) {
+	if (!file.exists()) {
 	  FileOutputStream fos = new FileOutputStream(file);
-	  bw = new BufferedWriter(new OutputStreamWriter(fos, "UTF-8"));
+	  OutputStream os = Gzip.compress(file, fos);
+	  bw = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
 	  bw.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
 	  bw.write("<DGA");
 	  if (language != "") bw.write(" language=\"" + language + "\"");
 	  bw.write(">\n");
-	}
-	for (Sentence sent : sentences)
-	  bw.write(sent.toString());
-	bw.write("</DGA>\n");
-	bw.close();
-	return true;
-      } else {
-	// write to TAB format
-	if (file.exists()) {
-	  File tempFile = File.createTempFile("DGA", "tmp");
-	  FileOutputStream fos = new FileOutputStream(tempFile);
-	  bw = new BufferedWriter(new OutputStreamWriter(fos, "UTF-8"));
-	  FileInputStream fis = new FileInputStream(file);
-	  BufferedReader br = new BufferedReader(new InputStreamReader(fis,
-	      "UTF-8"));
-	  // copy old file.
-	  while (true) {
-	    String line = br.readLine();
-	    if (line == null) break;
-	    bw.write(line + "\n");
+	  for (int i = 0; i < size(); i++) {
+	    getSentence(i).writeXml(bw);
+	    bw.write("\n");
 	  }
-	  br.close();
+	  bw.write("</DGA>\n");
+	  bw.flush();
+	  Gzip.finish(os);
 	  bw.close();
-	  file.delete();
-	  tempFile.renameTo(file);
+	  return true;
 	}
+	if (Gzip.applies(file))
+	  return appendToCompressedXml(file);
+	// overwrite the ending tag, leaving the rest of the file untouched
+	FileChannel channel = FileChannel.open(file.toPath(),
+	    StandardOpenOption.READ, StandardOpenOption.WRITE);
+	try {
+	  long end = lastIndexOf(channel, "</DGA>");
+	  String sep = "";
+	  if (end < 0) {
+	    // ending tag lost, e.g. by an interrupted append: drop what
+	    // follows the last complete sentence
+	    end = lastIndexOf(channel, "</s>");
+	    if (end < 0) return false;
+	    end += "</s>".length();
+	    sep = "\n";
+	  }
+	  channel.position(end);
+	  bw = new BufferedWriter(new OutputStreamWriter(
+	      Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16);
+	  bw.write(sep);
+	  for (int i = 0; i < size(); i++) {
+	    getSentence(i).writeXml(bw);
+	    bw.write("\n");
+	  }
+	  bw.write("</DGA>\n");
+	  bw.flush();
+	  channel.truncate(channel.position());
+	  channel.force(true);
+	} finally {
+	  channel.close();
+	}
+	return true;
+      } else if (Gzip.applies(file)) {
+	// add a gzip member, leaving the compressed data untouched
+	byte[] tail = file.exists() ? Gzip.tail(file, 3) : new byte[0];
 	FileOutputStream fos = new FileOutputStream(file, true);
-	bw = new BufferedWriter(new OutputStreamWriter(fos, "UTF-8"));
-	for (Sentence sent : sentences)
-	  bw.write(sent.toTab());
-	bw.close();
+	try {
+	  OutputStream os = Gzip.compress(file, fos);
+	  bw = new BufferedWriter(new OutputStreamWriter(os,
+	      StandardCharsets.UTF_8), 1 << 16);
+	  bw.write(IncrementalWriter.separator(tail, tail.length));
+	  for (int i = 0; i < size(); i++)
+	    getSentence(i).writeTab(bw);
+	  bw.flush();
+	  Gzip.finish(os);
+	  fos.getFD().sync();
+	} finally {
+	  fos.close();
+	}
+	return true;
+      } else {
+	// write to TAB format, appending to the existing file
+	FileChannel channel = FileChannel.open(file.toPath(),
+	    StandardOpenOption.READ, StandardOpenOption.WRITE,
+	    StandardOpenOption.CREATE);
+	try {
+	  long end = channel.size();
+	  channel.position(end);
+	  bw = new BufferedWriter(new OutputStreamWriter(
+	      Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16);
+	  bw.write(IncrementalWriter.separator(channel, end));
+	  for (int i = 0; i < size(); i++)
+	    getSentence(i).writeTab(bw);
+	  bw.flush();
+	  channel.force(true);
+	} finally {
+	  channel.close();
+	}
 	return true;
       }
     } catch (Exception e) {
@@ -648,7 +893,89 @@ public class Corpus {
     return false;
   }
 
+  /**
+   * Append to a compressed XML file, which is rewritten without its ending
+   * tag, since compressed data cannot be truncated.
+   *
+   * @return true if append was successful.
+   * @throws IOException
+   */
+  private boolean appendToCompressedXml(File file) throws IOException {
+    ByteBuffer data = Gzip.inflate(file);
+    if (data == null) return false;
+    byte[] content = data.array();
+    int end = lastIndexOf(content, data.limit(), "</DGA>");
+    String sep = "";
+    if (end < 0) {
+      end = lastIndexOf(content, data.limit(), "</s>");
+      if (end < 0) return false;
+      end += "</s>".length();
+      sep = "\n";
+    }
+    File temp = IncrementalWriter.createTemp(file);
+    try {
+      FileOutputStream fos = new FileOutputStream(temp);
+      try {
+	OutputStream os = Gzip.compress(file, fos);
+	os.write(content, 0, end);
+	BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os,
+	    StandardCharsets.UTF_8), 1 << 16);
+	bw.write(sep);
+	for (int i = 0; i < size(); i++) {
+	  getSentence(i).writeXml(bw);
+	  bw.write("\n");
+	}
+	bw.write("</DGA>\n");
+	bw.flush();
+	Gzip.finish(os);
+	fos.getFD().sync();
+      } finally {
+	fos.close();
+      }
+      IncrementalWriter.move(temp, file);
+    } finally {
+      temp.delete();
+    }
+    return true;
+  }
+
+  /**
+   * @return the position of the last occurrence of the ASCII string s in
+   *	     the first length bytes of b, or -1 if not found.
+   */
+  static int lastIndexOf(byte[] b, int length, String s) {
+    byte[] pattern = s.getBytes(StandardCharsets.US_ASCII);
+    for (int i = length - pattern.length; i >= 0; i--) {
+      int j = 0;
+      while (j < pattern.length && b[i + j] == pattern[j]) j++;
+      if (j == pattern.length) return i;
+    }
+    return -1;
+  }
+
   Vector<Sentence> sentences;
 
   File	     docFile;
+
+  private final Vector<CorpusChangeListener> listeners
+      = new Vector<CorpusChangeListener>();
+  private volatile TokenIndex tokenIndex; ///< built by tokenIndex()
+  private final Object indexLock = new Object();
+  private boolean indexing = false;	///< tokenIndex built in background
+
+  /**
+   * Journal of the edits to docFile not yet saved, if any.
+   */
+  EditJournal journal;
+  int	     recovered;		///< number of edits replayed from journal
+
+  LoadProgress progress;	///< of load() in progress, if any
+  private int  announced = 0;	///< sentences notified by load()
+
+  /**
+   * Whether sentences read from docFile record their byte span in it.
+   */
+  boolean    spans = false;
+  long	     sourceLength;	///< length of docFile when spans were recorded
+  long	     sourceModified;	///< time of last change of docFile then
 }
\ No newline at end of file
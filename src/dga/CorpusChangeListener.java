@@ -0,0 +1,27 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.util.EventListener;
+
+/**
+ * Receives notification of changes to the sentences of a Corpus, so that
+ * views and indexes can update just the sentences affected.
+ * Notifications are sent on the thread making the change.
+ *
+ * @author Attardi
+ *
+ */
+public interface CorpusChangeListener extends EventListener {
+
+  /**
+   * Sentence index of corpus has been edited.
+   */
+  void sentenceChanged(Corpus corpus, int index);
+
+  /**
+   * Sentences from first to last, inclusive, have been added to corpus.
+   */
+  void sentencesAdded(Corpus corpus, int first, int last);
+}
@@ -0,0 +1,129 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.awt.BorderLayout;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+
+/**
+ * Loads the corpus of a CorpusPane in background, showing above its list
+ * a progress bar, in bytes of the file read, and a button for cancelling.
+ * Sentences appear in the pane as they are read, but are opened for
+ * editing only once the corpus is loaded and its journal replayed.
+ * Subclasses are told of the outcome on the Event Dispatch Thread.
+ *
+ * @author Attardi
+ *
+ */
+class CorpusLoader extends SwingWorker<Corpus, Object> {
+
+  /**
+   * Milliseconds between updates of the progress bar.
+   */
+  static final int delay = 200;
+
+  CorpusLoader(CorpusPane pane) {
+    this.pane = pane;
+    corpus = pane.getCorpus();
+    progress = new LoadProgress(corpus.docFile.length());
+    pane.loader = this;
+  }
+
+  /**
+   * Show progress and start loading.
+   * Must be called on the Event Dispatch Thread.
+   */
+  void start() {
+    bar = new JProgressBar(0, 100);
+    bar.setStringPainted(true);
+    JButton cancel = new JButton("Cancel");
+    cancel.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent e) {
+	abort();
+      }
+    });
+    JPanel panel = new JPanel(new BorderLayout());
+    panel.add(bar, BorderLayout.CENTER);
+    panel.add(cancel, BorderLayout.EAST);
+    pane.setColumnHeaderView(panel);
+    timer = new javax.swing.Timer(delay, new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent e) {
+	update();
+      }
+    });
+    timer.start();
+    execute();
+  }
+
+  private void update() {
+    int percent = progress.percent();
+    bar.setValue(percent);
+    bar.setString(corpus.size() + " sentences, " + percent + "%");
+  }
+
+  /**
+   * Stop loading, at the next read.
+   */
+  void abort() {
+    progress.cancel();
+  }
+
+  protected Corpus doInBackground() throws Exception {
+    corpus.load(progress);
+    // mapped corpora are indexed only if searched, since that reads them all
+    if (!(corpus instanceof MappedCorpus)) corpus.tokenIndex();
+    return corpus;
+  }
+
+  protected void done() {
+    timer.stop();
+    pane.setColumnHeaderView(null);
+    pane.loader = null;
+    pane.reset();
+    try {
+      get();
+      // replay the edits not saved here, where sentences are edited, before
+      // the pane lets them be opened
+      corpus.recover();
+      loaded();
+    } catch (ExecutionException e) {
+      // readers may wrap the InterruptedIOException of cancellation
+      if (progress.isCancelled())
+	cancelled();
+      else
+	failed(e.getCause());
+    } catch (Exception e) {
+      cancelled();
+    }
+  }
+
+  /**
+   * Called when the corpus has been loaded.
+   */
+  void loaded() {
+  }
+
+  /**
+   * Called when loading failed.
+   */
+  void failed(Throwable cause) {
+  }
+
+  /**
+   * Called when loading was cancelled.
+   */
+  void cancelled() {
+  }
+
+  private final CorpusPane   pane;
+  private final Corpus	     corpus;
+  private final LoadProgress progress;
+  private JProgressBar	     bar;
+  private javax.swing.Timer  timer;
+}
@@ -3,18 +3,27 @@
 ///
 package dga;
 
+import java.awt.Color;
+import java.awt.Component;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Insets;
 import java.awt.RenderingHints;
 import java.awt.event.*;
 import java.io.*;
+import java.util.concurrent.Future;
 import java.util.regex.*;
 
+import javax.swing.AbstractListModel;
 import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
 import javax.swing.JEditorPane;
+import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.ToolTipManager;
 import javax.swing.event.*;
 import javax.swing.text.*;
 import javax.swing.JDialog;
@@ -25,7 +34,13 @@ import javax.swing.JButton;
 import javax.swing.ImageIcon;
 
 /**
- * Display the list of sentences for a corpus in a searchable text area.
+ * Display the list of sentences for a corpus in a searchable list, or a
+ * text to annotate in a text area.
+ * The list renders only the visible sentences, reading them from the corpus
+ * as they are scrolled into view, so that its cost does not depend on the
+ * size of the corpus.
+ * Selecting a sentence notifies the HyperlinkListeners, with the index of
+ * the sentence as description, like a link in a document.
  * 
  * @author Attardi
  *
@@ -33,10 +48,16 @@ import javax.swing.ImageIcon;
 public class CorpusPane extends JScrollPane {
   
   private JEditorPane textArea = null;
+  private JList<Integer> sentenceList = null;
+  private SentenceListModel sentences = null;
+  private int activated = -1;	///< sentence last notified to listeners
   protected Corpus corpus;
   protected boolean hasChanged = false;
+  protected Future<Boolean> saving;	///< last save started
+  CorpusLoader loader;			///< loading corpus, if any
   protected SentenceView sentenceView;
   protected WordSearcher searcher = null;
+  protected SentenceSearcher sentenceSearcher = null;
   
   Corpus getCorpus() { return corpus; }
   
@@ -54,26 +75,24 @@ public class CorpusPane extends JScrollPane {
   public CorpusPane() {
     super();
     initialize();
+    this.setViewportView(getTextArea());
     corpus = new Corpus();
   }
   
   public CorpusPane(Corpus corpus) {
     super();
-    initialize();
     this.corpus = corpus;
+    initialize();
+    this.setViewportView(getSentenceList());
     hasChanged = false; // undo change in setLocale()
-    textArea.setText(corpus.toHTML());
-    textArea.setCaretPosition(0);
-    textArea.setEditable(false);
   }
   
   /**
-   * reset the visualization after a change to the text.
+   * reset the visualization after a change to the corpus.
    */
   public void reset() {
-    int caret = textArea.getCaretPosition();
-    textArea.setText(corpus.toHTML());
-    textArea.setCaretPosition(caret);
+    if (sentences != null)
+      sentences.changed();
   }
 
   /**
@@ -83,6 +102,7 @@ public class CorpusPane extends JScrollPane {
    */
   public CorpusPane(File file) throws IOException {
     initialize();
+    this.setViewportView(getTextArea());
     corpus = new Corpus();
     textArea.read(new FileReader(file), null);
     textArea.setEditable(true);
@@ -95,7 +115,6 @@ public class CorpusPane extends JScrollPane {
    */
   private void initialize() {
     this.setSize(400, 200);
-    this.setViewportView(getTextArea());
     this.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, 0));
     this.addComponentListener(new java.awt.event.ComponentAdapter() {
       public void componentHidden(java.awt.event.ComponentEvent e) {
@@ -123,18 +142,8 @@ public class CorpusPane extends JScrollPane {
 	}
       };
       textArea.setMargin(new Insets(5, 5, 5, 5));
-      textArea.addKeyListener(new KeyAdapter() {
-	public void keyTyped(KeyEvent e) {
-	  if (e.isControlDown()) {
-	    if (e.getKeyChar() == 'F' - '@') { // C-f = 'F' - '@'
-	      searchDialog.setLocationRelativeTo(textArea.getParent());
-	      searchDialog.setVisible(true);
-	      searcher.reset();
-	      wordField.requestFocusInWindow();
-	    }
-	  }
-	}
-      });
+      textArea.addKeyListener(searchKeyListener);
+      searcher = new WordSearcher(textArea);
       /* does not work:
        textArea.getInputMap().put(KeyStroke.getKeyStroke('f', InputEvent.CTRL_MASK), "find");
        textArea.getActionMap().put("find",
@@ -149,17 +158,199 @@ public class CorpusPane extends JScrollPane {
     }
     return textArea;
   }
+
+  /**
+   * Open the search dialog on C-f.
+   */
+  private KeyListener searchKeyListener = new KeyAdapter() {
+    public void keyTyped(KeyEvent e) {
+      if (e.isControlDown()) {
+	if (e.getKeyChar() == 'F' - '@') { // C-f = 'F' - '@'
+	  searchDialog.setLocationRelativeTo(getParent());
+	  searchDialog.setVisible(true);
+	  if (searcher != null) searcher.reset();
+	  if (sentenceSearcher != null)
+	    sentenceSearcher.reset(sentenceList.getSelectedIndex());
+	  wordField.requestFocusInWindow();
+	}
+      }
+    }
+  };
+
+  /**
+   * The sentences of the corpus, as indexes into it.
+   * Follows changes to the corpus, notifying the list of just the rows
+   * affected, so that selection and scroll position are kept.
+   */
+  @SuppressWarnings("serial")
+  class SentenceListModel extends AbstractListModel<Integer>
+      implements CorpusChangeListener {
+    /// sentences notified to the list, since the corpus may grow
+    /// concurrently while it is loaded
+    private int size = corpus.size();
+
+    public int getSize() {
+      return size;
+    }
+
+    public Integer getElementAt(int i) {
+      return i;
+    }
+
+    /**
+     * Notify the list that sentences were changed, added or removed.
+     */
+    void changed() {
+      size = corpus.size();
+      fireContentsChanged(this, 0, Integer.MAX_VALUE);
+    }
+
+    public void sentenceChanged(Corpus corpus, final int index) {
+      if (!SwingUtilities.isEventDispatchThread()) {
+	SwingUtilities.invokeLater(new Runnable() {
+	  public void run() {
+	    fireContentsChanged(SentenceListModel.this, index, index);
+	  }
+	});
+      } else
+	fireContentsChanged(this, index, index);
+    }
+
+    public void sentencesAdded(Corpus corpus, final int first, final int last) {
+      if (!SwingUtilities.isEventDispatchThread()) {
+	SwingUtilities.invokeLater(new Runnable() {
+	  public void run() {
+	    added(first, last);
+	  }
+	});
+      } else
+	added(first, last);
+    }
+
+    private void added(int first, int last) {
+      if (last < size) return;	// already counted by changed()
+      first = Math.max(first, size);
+      size = last + 1;
+      fireIntervalAdded(this, first, last);
+    }
+  }
+
+  static final Color evenLineColor = Color.decode(Corpus.evenLineColor);
+  static final Color oddLineColor  = Color.decode(Corpus.oddLineColor);
+
+  /**
+   * Renders a sentence as its words, on alternating backgrounds.
+   */
+  @SuppressWarnings("serial")
+  class SentenceRenderer extends DefaultListCellRenderer {
+    public Component getListCellRendererComponent(JList<?> list, Object value,
+	int index, boolean isSelected, boolean cellHasFocus) {
+      String text = text(corpus.getSentence((Integer)value));
+      super.getListCellRendererComponent(list, text, index, isSelected,
+	  cellHasFocus);
+      if (!isSelected)
+	setBackground(index % 2 == 0 ? evenLineColor : oddLineColor);
+      setToolTipText(text);
+      return this;
+    }
+  }
+
+  /**
+   * @return the words of sentence, separated by spaces.
+   */
+  static String text(Sentence sentence) {
+    if (sentence == null) return "";
+    StringBuilder s = new StringBuilder();
+    for (String word : sentence.forms) {
+      if (s.length() > 0) s.append(' ');
+      s.append(word);
+    }
+    return s.toString();
+  }
+
+  /**
+   * This method initializes sentenceList
+   * 
+   * @return javax.swing.JList
+   */
+  private JList<Integer> getSentenceList() {
+    if (sentenceList == null) {
+      sentences = new SentenceListModel();
+      sentenceList = new JList<Integer>(sentences);
+      corpus.addCorpusChangeListener(sentences);
+      sentenceList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+      sentenceList.setCellRenderer(new SentenceRenderer());
+      // fixed cell size, so that the list never renders all sentences to
+      // lay them out: a cell width smaller than the viewport makes cells as
+      // wide as the viewport
+      sentenceList.setFixedCellHeight(sentenceList.getFontMetrics(
+	  sentenceList.getFont()).getHeight() + 4);
+      sentenceList.setFixedCellWidth(1);
+      ToolTipManager.sharedInstance().registerComponent(sentenceList);
+      sentenceList.addListSelectionListener(new ListSelectionListener() {
+	public void valueChanged(ListSelectionEvent e) {
+	  if (!e.getValueIsAdjusting())
+	    activate(sentenceList.getSelectedIndex());
+	}
+      });
+      sentenceList.addMouseListener(new MouseAdapter() {
+	int pressed = -1;	// activated when mouse was pressed
+
+	public void mousePressed(MouseEvent e) {
+	  pressed = activated;
+	}
+
+	public void mouseClicked(MouseEvent e) {
+	  // clicking again the sentence open opens it again
+	  int index = sentenceList.locationToIndex(e.getPoint());
+	  if (index >= 0 && index == pressed && sentenceList
+	      .getCellBounds(index, index).contains(e.getPoint()))
+	    activate(index, true);
+	}
+      });
+      sentenceList.addKeyListener(searchKeyListener);
+      sentenceSearcher = new SentenceSearcher(corpus);
+    }
+    return sentenceList;
+  }
+
+  private void activate(int index) {
+    activate(index, index != activated);
+  }
+
+  /**
+   * Notify HyperlinkListeners that sentence index was selected.
+   * Sentences are not opened while loading, since edits not saved are
+   * recovered only when loading completes.
+   */
+  private void activate(int index, boolean notify) {
+    if (index < 0 || !notify || loading()) return;
+    activated = index;
+    HyperlinkEvent event = new HyperlinkEvent(this,
+	HyperlinkEvent.EventType.ACTIVATED, null, Integer.toString(index));
+    for (HyperlinkListener hl : listenerList
+	.getListeners(HyperlinkListener.class))
+      hl.hyperlinkUpdate(event);
+  }
   
   public void addHyperlinkListener(HyperlinkListener hl) {
-    textArea.addHyperlinkListener(hl);
+    if (textArea != null)
+      textArea.addHyperlinkListener(hl);
+    listenerList.add(HyperlinkListener.class, hl);
   }
   
   public void addCaretListener(CaretListener cl) {
-    textArea.addCaretListener(cl);
+    if (textArea != null)
+      textArea.addCaretListener(cl);
   }
   
   public SentenceView getSentenceView(int i) {
-    sentenceView = new SentenceView(corpus.getSentence(i), corpus.scheme);
+    Sentence sentence = corpus.getSentence(i);
+    // the sentence is pinned in a MappedCorpus by its first edit
+    sentenceView = new SentenceView(sentence, corpus.scheme);
+    sentenceView.corpus = corpus;
+    sentenceView.index = i;
+    sentenceView.journal = corpus.journal;
     return sentenceView;
   }
   
@@ -168,6 +359,8 @@ public class CorpusPane extends JScrollPane {
   }
   
   public SentenceView getSelectedSentenceView() {
+    if (textArea == null)
+      return getSentenceView(Math.max(0, sentenceList.getSelectedIndex()));
     String selectedText = textArea.getSelectedText();
     Sentence sentence = new Sentence(selectedText, corpus.scheme);
     corpus.add(sentence);
@@ -175,7 +368,19 @@ public class CorpusPane extends JScrollPane {
     return sentenceView;
   }
   
-  public boolean close() {
+  /**
+   * Ask whether to save annotations before closing.
+   * 
+   * @param closer run when the pane can be closed, after saving in
+   *	    background if requested.
+   */
+  public void close(Runnable closer) {
+    if (loading()) {
+      // nothing to save from a partial corpus
+      loader.abort();
+      closer.run();
+      return;
+    }
     if (hasChanged) {
       switch (JOptionPane.showConfirmDialog(
 	  null,
@@ -183,25 +388,48 @@ public class CorpusPane extends JScrollPane {
 	  "Unsaved Annotations",
 	  JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.INFORMATION_MESSAGE)) {
 	  case JOptionPane.YES_OPTION:
-	    return corpus.save();
+	    if (corpus.docFile != null) save(corpus.docFile, closer);
+	    return;
+	  case JOptionPane.NO_OPTION:
+	    corpus.discardJournal();
+	    break;
 	  case JOptionPane.CANCEL_OPTION:
-	    return false;
+	    return;
       }
     }
-    return true;
+    closer.run();
   }
   
   /**
+   * Save corpus to file in background.
    * 
    * @param file
-   * @return true if save was successful.
+   * @param done run after a successful save.
    */
-  public boolean save(File file) {
-    if (corpus.save(file)) {
-      hasChanged = false;
-      return true;
-    }
-    return false;
+  public void save(final File file, final Runnable done) {
+    if (loading()) return;	// would lose the sentences not yet read
+    saving = Autosave.save(corpus, file, new Runnable() {
+      public void run() {
+	// changes made while saving are still to be saved
+	hasChanged = corpus.docFile != null && corpus.hasChanges()
+	    && file.getAbsoluteFile().equals(corpus.docFile.getAbsoluteFile());
+	if (done != null) done.run();
+      }
+    });
+  }
+
+  /**
+   * @return whether a save is in progress.
+   */
+  public boolean saving() {
+    return saving != null && !saving.isDone();
+  }
+
+  /**
+   * @return whether the corpus is still being loaded.
+   */
+  public boolean loading() {
+    return loader != null;
   }
   
   /**
@@ -210,7 +438,7 @@ public class CorpusPane extends JScrollPane {
    * @return true if save was successful.
    */
   public boolean appendTo(File file) {
-    if (corpus.appendTo(file)) {
+    if (!loading() && corpus.appendTo(file)) {
       hasChanged = false;
       return true;
     }
@@ -235,7 +463,6 @@ public class CorpusPane extends JScrollPane {
       searchDialog.setResizable(false);
       searchDialog.setTitle("Search");
       searchDialog.setContentPane(getSearchPane());
-      searcher = new WordSearcher(getTextArea());
     }
     return searchDialog;
   }
@@ -286,6 +513,10 @@ public class CorpusPane extends JScrollPane {
       nextButton.addActionListener(new java.awt.event.ActionListener() {
 	public void actionPerformed(java.awt.event.ActionEvent e) {
 	  String word = wordField.getText();
+	  if (sentenceList != null) {
+	    select(sentenceSearcher.search(word, true));
+	    return;
+	  }
 	  int offset = searcher.search(word, true);
 	  if (offset != -1) {
 	    try {
@@ -314,6 +545,10 @@ public class CorpusPane extends JScrollPane {
       previousButton.addActionListener(new java.awt.event.ActionListener() {
 	public void actionPerformed(java.awt.event.ActionEvent e) {
 	  String word = wordField.getText().trim();
+	  if (sentenceList != null) {
+	    select(sentenceSearcher.search(word, false));
+	    return;
+	  }
 	  int offset = searcher.search(word, false);
 	  if (offset != -1) {
 	    try {
@@ -326,6 +561,25 @@ public class CorpusPane extends JScrollPane {
     }
     return previousButton;
   }
+
+  /**
+   * Select sentence index and open it, even if it is the one open.
+   */
+  public void open(int index) {
+    if (sentenceList == null || index < 0 || index >= corpus.size()) return;
+    int before = activated;
+    select(index);		// opens it if the selection changes
+    if (activated == before) activate(index, true);
+  }
+
+  /**
+   * Select and show sentence index, if any.
+   */
+  private void select(int index) {
+    if (index < 0) return;
+    sentenceList.setSelectedIndex(index);
+    sentenceList.ensureIndexIsVisible(index);
+  }
 }
 
 /**
@@ -0,0 +1,305 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.Vector;
+import java.util.regex.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.xml.parsers.*;
+import org.w3c.dom.*;
+
+/**
+ * Streaming reader for corpora in CoNLL tab separated format, either CoNLL-X
+ * or CoNLL-U.
+ * Sentences are produced one at a time, so that a corpus of any size can be
+ * scanned in bounded memory.
+ *
+ * @author Attardi
+ *
+ */
+public class CorpusReader implements Iterator<Sentence>, Closeable {
+
+  /**
+   * Create a reader for a CoNLL file.
+   *
+   * @param file
+   * @param conllu whether the file is in CoNLL-U format
+   * @throws IOException
+   */
+  public CorpusReader(File file, boolean conllu) throws IOException {
+    this(new FileInputStream(file), conllu);
+  }
+
+  /**
+   * Create a reader for a CoNLL file, guessing the format from its extension.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public CorpusReader(File file) throws IOException {
+    this(file, !file.getName().endsWith(".conll"));
+  }
+
+  public CorpusReader(InputStream is, boolean conllu) throws IOException {
+    this(is, conllu, new Vocabulary());
+  }
+
+  /**
+   * Create a reader whose values are shared through the given vocabulary.
+   * 
+   * @param is
+   * @param conllu whether the input is in CoNLL-U format
+   * @param vocabulary
+   * @throws IOException
+   */
+  public CorpusReader(InputStream is, boolean conllu, Vocabulary vocabulary)
+      throws IOException {
+    this(new ConllTokenizer(is), conllu, vocabulary);
+  }
+
+  /**
+   * Create a reader for input held entirely in memory, which is tokenized
+   * in place without further buffering.
+   *
+   * @param data
+   * @param conllu whether the input is in CoNLL-U format
+   * @param vocabulary
+   */
+  CorpusReader(byte[] data, boolean conllu, Vocabulary vocabulary) {
+    this(new ConllTokenizer(data), conllu, vocabulary);
+  }
+
+  private CorpusReader(ConllTokenizer in, boolean conllu,
+      Vocabulary vocabulary) {
+    this.in = in;
+    this.conllu = conllu;
+    this.vocabulary = vocabulary;
+  }
+
+  /**
+   * Read the next sentence.
+   *
+   * @return the next sentence, or null at end of input.
+   * @throws IOException
+   * @throws ParseException on a malformed CoNLL-U token line.
+   */
+  public Sentence read() throws IOException, ParseException {
+    if (pending != null) {
+      Sentence next = pending;
+      pending = null;
+      return next;
+    }
+    if (closed) return null;
+    while (in.nextLine()) {
+      if (in.isEmpty()) {
+	if (start < 0) start = in.lineOffset();
+	return sentence(Integer.toString(count++));
+      }
+      if (conllu) {
+	if (start < 0) start = in.lineOffset();
+	if (in.first() == '#') {
+	  comments.add(in.line());
+	  continue;
+	}
+	if (in.split() > 1 && in.rangeStart(0) >= 0) {
+	  // add multiword
+	  if (multiwords == null) multiwords = new MultiWords();
+	  multiwords.add(in.rangeStart(0) - 1, in.rangeEnd(0) - 1,
+	      in.field(1, vocabulary),
+	      in.split() > 2 ? in.rest(2, vocabulary) : null);
+	  continue;
+	}
+	if (!token()) {
+	  int ln = in.getLineNumber();
+	  throw new ParseException("malformed input file at line: " + ln, ln);
+	}
+      } else {
+	if (in.first() == '<') {
+	  String line = in.line();
+	  Matcher d = Corpus.reDoc.matcher(line);
+	  if (d.matches()) {
+	    if (line.charAt(1) == '/') doc = null;
+	    else {
+	      doc = createDoc();
+	      doc.setAttribute("id", d.group(4));
+	      doc.setAttribute("url", d.group(7));
+	    }
+	    continue;
+	  }
+	}
+	if (start < 0) start = in.lineOffset();
+	token();
+      }
+    }
+    close();
+    if (tokens.size() > 0) // leftover
+      return sentence(Integer.toString(count));
+    return null;
+  }
+
+  /**
+   * Add a token from the current line, which must have the form:
+   *	id form lemma cpostag postag feats head deprel phead pdeprel
+   * where id and head are numbers and only the last field can be empty.
+   * 
+   * @return false if the line is not a well formed token line.
+   */
+  private boolean token() {
+    if (in.split() < 10) return false;
+    int id = in.number(0);
+    int head = in.number(6);
+    if (id < 0 || head < 0) return false;
+    for (int i = 1; i < 9; i++)
+      if (in.length(i) == 0) return false;
+    if (id != tokens.size() + 1) return true;
+    // dependency as offset
+    if (head == 0) head = Integer.MAX_VALUE;
+    else head -= id;
+    // orth lemma cpos pos feats head deprel
+    // pheads (deps in CoNLL-U) pdeprels (misc in CoNLL-U)
+    tokens.add(in.field(1, vocabulary), in.field(2, vocabulary),
+	in.field(3, vocabulary), in.field(4, vocabulary),
+	in.field(5, vocabulary), head, in.field(7, vocabulary),
+	in.field(8, vocabulary), in.rest(9, vocabulary));
+    return true;
+  }
+
+  /**
+   * Build a sentence from the accumulated tokens and prepare for next one.
+   */
+  private Sentence sentence(String sid) {
+    Sentence sentence = build(sid);
+    // the sentence spans from its first line through the terminating one
+    sentence.offset = start;
+    sentence.span = (int)(in.nextOffset() - start);
+    start = -1;
+    return sentence;
+  }
+
+  private Sentence build(String sid) {
+    Sentence sentence = tokens.build(sid);
+    if (conllu) {
+      if (!comments.isEmpty()) {
+	sentence.meta = new Metadata(comments, vocabulary);
+	comments.clear();
+      }
+      sentence.multiwords = multiwords;
+      multiwords = null;
+    } else
+      sentence.context = doc;
+    return sentence;
+  }
+
+  public boolean hasNext() {
+    if (pending == null) {
+      try {
+	pending = read();
+      } catch (IOException e) {
+	throw new UncheckedIOException(e);
+      } catch (ParseException e) {
+	throw new IllegalStateException(e.getMessage(), e);
+      }
+    }
+    return pending != null;
+  }
+
+  public Sentence next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    Sentence next = pending;
+    pending = null;
+    return next;
+  }
+
+  public Spliterator<Sentence> spliterator() {
+    return Spliterators.spliteratorUnknownSize(this,
+	Spliterator.ORDERED | Spliterator.NONNULL);
+  }
+
+  /**
+   * @return a sequential stream of the sentences in the input.
+   */
+  public Stream<Sentence> stream() {
+    return StreamSupport.stream(spliterator(), false).onClose(new Runnable() {
+      public void run() {
+	try {
+	  close();
+	} catch (IOException e) {
+	  throw new UncheckedIOException(e);
+	}
+      }
+    });
+  }
+
+  public void close() throws IOException {
+    if (!closed) {
+      in.close();
+      closed = true;
+    }
+  }
+
+  /**
+   * Sentences read before any <doc> line will have as context a placeholder
+   * for the document open before the start of input, which is unknown when
+   * reading a portion of a file.
+   * 
+   * @return the placeholder.
+   * @throws IOException
+   */
+  Element inheritContext() throws IOException {
+    return doc = createDoc();
+  }
+
+  /**
+   * Create a <doc> element. The DOM document owning it is only created
+   * when first needed, since CoNLL-U input has no <doc> lines.
+   */
+  private Element createDoc() throws IOException {
+    if (document == null) {
+      try {
+	document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+	    .newDocument();
+      } catch (ParserConfigurationException e) {
+	throw new IOException(e);
+      }
+    }
+    return document.createElement("doc");
+  }
+
+  /**
+   * @return the document open at the current point of input (CoNLL-X).
+   */
+  Element getContext() {
+    return doc;
+  }
+
+  /**
+   * @return the number of the line last read.
+   */
+  public int getLineNumber() {
+    return in.getLineNumber();
+  }
+
+  private final ConllTokenizer in;
+  private final Vocabulary vocabulary;	///< shared values
+  private boolean	 closed	 = false;
+  private final boolean	 conllu;
+  private Sentence	 pending = null;
+  private int		 count	 = 0;	// sentences
+  private long		 start	 = -1;	///< offset of current sentence
+
+  private Document	 document = null; ///< owner of doc elements, created lazily
+  private Element	 doc	 = null; ///< the current document (CoNLL-X)
+
+  private final SentenceBuilder tokens = new SentenceBuilder();
+  private MultiWords	  multiwords = null; ///< CoNLL-U
+  private Vector<String>  comments = new Vector<String>(); ///< CoNLL-U
+}
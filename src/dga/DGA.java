@@ -43,6 +43,11 @@ public class DGA extends JFrame implements HyperlinkListener {
   private JMenu	     	helpMenu	    = null;
   private JMenuItem	helpMenuItem	    = null;
   private JMenu	     	configMenu	    = null;
+  private JMenu	     	searchMenu	    = null;
+  private JMenuItem	treeQueryMenuItem   = null;
+  private TreeQueryDialog treeQueryDialog    = null;
+  private JMenuItem	searchAllMenuItem   = null;
+  private SearchAllDialog searchAllDialog    = null;
   private JToolBar	toolBar		    = null;
 
   private JButton	openAction	  = null;
@@ -77,6 +82,7 @@ public class DGA extends JFrame implements HyperlinkListener {
       // menuBar.setBackground(java.awt.SystemColor.control);
       menuBar.add(getFileMenu());
       menuBar.add(getConfigMenu());
+      menuBar.add(getSearchMenu());
       menuBar.add(getHelpMenu());
     }
     return menuBar;
@@ -195,6 +201,78 @@ public class DGA extends JFrame implements HyperlinkListener {
     return configMenu;
   }
 
+  /**
+   * This method initializes searchMenu
+   * 
+   * @return javax.swing.JMenu
+   */
+  private JMenu getSearchMenu() {
+    if (searchMenu == null) {
+      searchMenu = new JMenu();
+      searchMenu.setText("Search");
+      searchMenu.setMnemonic(java.awt.event.KeyEvent.VK_S);
+      searchMenu.add(getTreeQueryMenuItem());
+      searchMenu.add(getSearchAllMenuItem());
+    }
+    return searchMenu;
+  }
+
+  /**
+   * This method initializes treeQueryMenuItem
+   * 
+   * @return javax.swing.JMenuItem
+   */
+  private JMenuItem getTreeQueryMenuItem() {
+    if (treeQueryMenuItem == null) {
+      treeQueryMenuItem = new JMenuItem();
+      treeQueryMenuItem.setText("Tree Query...");
+      treeQueryMenuItem.setMnemonic(java.awt.event.KeyEvent.VK_Q);
+      treeQueryMenuItem.addActionListener(new java.awt.event.ActionListener() {
+	public void actionPerformed(java.awt.event.ActionEvent e) {
+	  if (treeQueryDialog == null) {
+	    treeQueryDialog = new TreeQueryDialog(DGA.this);
+	    treeQueryDialog.setLocationRelativeTo(DGA.this);
+	  }
+	  treeQueryDialog.setVisible(true);
+	}
+      });
+    }
+    return treeQueryMenuItem;
+  }
+
+  /**
+   * This method initializes searchAllMenuItem
+   * 
+   * @return javax.swing.JMenuItem
+   */
+  private JMenuItem getSearchAllMenuItem() {
+    if (searchAllMenuItem == null) {
+      searchAllMenuItem = new JMenuItem();
+      searchAllMenuItem.setText("Search All Tabs...");
+      searchAllMenuItem.setMnemonic(java.awt.event.KeyEvent.VK_A);
+      searchAllMenuItem.addActionListener(new java.awt.event.ActionListener() {
+	public void actionPerformed(java.awt.event.ActionEvent e) {
+	  if (searchAllDialog == null) {
+	    searchAllDialog = new SearchAllDialog(DGA.this);
+	    searchAllDialog.setLocationRelativeTo(DGA.this);
+	  }
+	  searchAllDialog.setVisible(true);
+	}
+      });
+    }
+    return searchAllMenuItem;
+  }
+
+  /**
+   * Show in the annotator sentence index of the corpus in pane, selecting
+   * its tab.
+   */
+  void showSentence(CorpusPane pane, int index) {
+    if (corpusTabs.indexOfComponent(pane) < 0) return; // closed
+    corpusTabs.setSelectedComponent(pane);
+    pane.open(index);
+  }
+
   /**
    * This method initializes toolBar
    * 
@@ -257,14 +335,39 @@ public class DGA extends JFrame implements HyperlinkListener {
 
   private JButton   saveImageAction   = null;
 
-  private CorpusPane open(File file) throws Exception {
-    CorpusPane cp = new CorpusPane(new Corpus(file));
+  /**
+   * Open file in a new tab, loading it in background: the tab is removed
+   * if loading fails or is cancelled.
+   */
+  private CorpusPane open(final File file) {
+    final CorpusPane cp = new CorpusPane(Corpus.create(file));
     corpusTabs.addTab(file.getName(), null, cp, null);
     corpusTabs.setSelectedComponent(cp);
     cp.addHyperlinkListener(this);
     corpusPane = cp;
     saveAction.setEnabled(false);
     compareCorpus = null;
+    new CorpusLoader(cp) {
+      void loaded() {
+	if (cp.getCorpus().recovered > 0) {
+	  // edits replayed from journal are still to be saved
+	  cp.hasChanged = true;
+	  hasChanged = true;
+	  if (cp == corpusPane) modelChanged();
+	}
+      }
+
+      void failed(Throwable cause) {
+	corpusTabs.remove(cp);
+	JOptionPane.showMessageDialog(DGA.this, "Error reading file: " + file
+	    + "\n" + cause.getMessage(), "Read Error",
+	    JOptionPane.ERROR_MESSAGE);
+      }
+
+      void cancelled() {
+	corpusTabs.remove(cp);
+      }
+    }.start();
     return cp;
   }
 
@@ -287,27 +390,24 @@ public class DGA extends JFrame implements HyperlinkListener {
     if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
       File selected = fileChooser.getSelectedFile();
       currentDir = selected.getParent();
-      try {
-	CorpusPane cp;
-	if (selected.getPath().endsWith(".xml")
-	    || selected.getPath().endsWith(".tab")
-	    || selected.getPath().endsWith(".conll")
-	    || selected.getPath().endsWith(".conllu")) {
-	  cp = open(selected);
-	  compareWithMenuItem.setEnabled(true);
-	} else {
-	  cp = open(selected);
-	  cp.setLocale(annotator.getLocale());
-	  // get notified about changes in text selection
-	  cp.addCaretListener(caretListener);
-	  appendToMenuItem.setEnabled(false);
-	  compareWithMenuItem.setEnabled(false);
-	}
-	return true;
-      } catch (Exception e) {
-	JOptionPane.showMessageDialog(this, "Error reading file: " + selected
-	    + "\n" + e.getMessage(), "Read Error", JOptionPane.ERROR_MESSAGE);
+      CorpusPane cp;
+      String path = Gzip.path(selected);
+      if (path.endsWith(".xml")
+	  || path.endsWith(".tab")
+	  || path.endsWith(".conll")
+	  || path.endsWith(".conllu")
+	  || path.endsWith(".dgab")) {
+	cp = open(selected);
+	compareWithMenuItem.setEnabled(true);
+      } else {
+	cp = open(selected);
+	cp.setLocale(annotator.getLocale());
+	// get notified about changes in text selection
+	cp.addCaretListener(caretListener);
+	appendToMenuItem.setEnabled(false);
+	compareWithMenuItem.setEnabled(false);
       }
+      return true;
     }
     return false;
   }
@@ -317,7 +417,41 @@ public class DGA extends JFrame implements HyperlinkListener {
    *
    */
   private void save() {
-    corpusPane.getCorpus().save();
+    save(corpusPane, null);
+  }
+
+  /**
+   * Save corpus of pane to its file, in background.
+   *
+   * @param done run after a successful save.
+   * @return false if the corpus has no file.
+   */
+  private boolean save(final CorpusPane pane, final Runnable done) {
+    File file = pane.getCorpus().docFile;
+    if (file == null) return false;
+    pane.save(file, new Runnable() {
+      public void run() {
+	if (pane == corpusPane && !pane.hasChanged) saveAction.setEnabled(false);
+	hasChanged = false;
+	for (int i = 0; i < corpusTabs.getTabCount(); i++)
+	  if (((CorpusPane)corpusTabs.getComponentAt(i)).hasChanged)
+	    hasChanged = true;
+	if (done != null) done.run();
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Save in background the changed corpora of all tabs, unless already
+   * being saved.
+   */
+  private void autosave() {
+    for (int i = 0; i < corpusTabs.getTabCount(); i++) {
+      CorpusPane pane = (CorpusPane)corpusTabs.getComponentAt(i);
+      if (pane.hasChanged && !pane.saving() && !pane.loading())
+	save(pane, null);
+    }
   }
 
   private boolean saveAs() {
@@ -327,11 +461,13 @@ public class DGA extends JFrame implements HyperlinkListener {
     if (fileChooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
       File selected = fileChooser.getSelectedFile();
       currentDir = selected.getParent();
-      if (corpusPane.save(selected)) {
-	saveAction.setEnabled(false);
-	appendToMenuItem.setEnabled(false);
-	return true;
-      }
+      corpusPane.save(selected, new Runnable() {
+	public void run() {
+	  saveAction.setEnabled(false);
+	  appendToMenuItem.setEnabled(false);
+	}
+      });
+      return true;
     }
     return false;
   }
@@ -362,17 +498,19 @@ public class DGA extends JFrame implements HyperlinkListener {
       File selected = fileChooser.getSelectedFile();
       currentDir = selected.getParent();
       try {
-	if (selected.getPath().endsWith(".xml")
-	    || selected.getPath().endsWith(".tab")
-	    || selected.getPath().endsWith(".conll")
-	    || selected.getPath().endsWith(".conllu")) {
-	  compareCorpus = new Corpus(selected);
+	String path = Gzip.path(selected);
+	if (path.endsWith(".xml")
+	    || path.endsWith(".tab")
+	    || path.endsWith(".conll")
+	    || path.endsWith(".conllu")
+	    || path.endsWith(".dgab")) {
+	  compareCorpus = Corpus.load(selected);
 	  // check that corpus contains same sentences
 	  Corpus corpus = corpusPane.corpus;
-	  if (corpus.sentences.size() != compareCorpus.sentences.size()) return false;
-	  for (int i = 0; i < corpus.sentences.size(); i++) {
-	    String[] words1 = corpus.sentences.get(i).forms;
-	    String[] words2 = compareCorpus.sentences.get(i).forms;
+	  if (corpus.size() != compareCorpus.size()) return false;
+	  for (int i = 0; i < corpus.size(); i++) {
+	    String[] words1 = corpus.getSentence(i).forms;
+	    String[] words2 = compareCorpus.getSentence(i).forms;
 	    if (words1.length != words2.length) return false;
 	    for (int j = 0; j < words1.length; j++)
 	      if (!words1[j].equals(words2[j])) return false;
@@ -851,7 +989,7 @@ public class DGA extends JFrame implements HyperlinkListener {
    * 
    * @return javax.swing.JTabbedPane
    */
-  private JTabbedPane getCorpusTabs() {
+  JTabbedPane getCorpusTabs() {
     if (corpusTabs == null) {
       corpusTabs = new CloseableTabbedPane();
       corpusTabs.setPreferredSize(new java.awt.Dimension(600, 250));
@@ -868,11 +1006,13 @@ public class DGA extends JFrame implements HyperlinkListener {
       corpusTabs.addTabCloseListener(new TabCloseListener() {
 	public void tabClosed(TabCloseEvent e) {
 	  int idx = e.getClosedTab();
-	  CorpusPane cp = (CorpusPane) corpusTabs.getComponentAt(idx);
+	  final CorpusPane cp = (CorpusPane) corpusTabs.getComponentAt(idx);
 	  // assert (cp == corpusPane) because stateChanged() has been called.
-	  if (cp.close()) {
-	    corpusTabs.remove(cp);
-	  }
+	  cp.close(new Runnable() {
+	    public void run() {
+	      corpusTabs.remove(cp);
+	    }
+	  });
 	  // closing when not selected, selects it first. Hence restore
 	  // selected.
 	  corpusPane = (CorpusPane) corpusTabs.getSelectedComponent();
@@ -1040,12 +1180,9 @@ public class DGA extends JFrame implements HyperlinkListener {
   public DGA(String[] args) {
     super();
     initialize();
-    for (String file : args) {
-      try {
-	open(new File(file));
-      } catch (Exception e) {
-      }
-    }
+    // loaded concurrently, each reporting its own errors
+    for (String file : args)
+      open(new File(file));
   }
 
   /**
@@ -1059,11 +1196,22 @@ public class DGA extends JFrame implements HyperlinkListener {
     this.setJMenuBar(getJMenuBar());
     this.setContentPane(getJContentPane());
     this.setTitle("DG Annotator");
+    // doExit() decides whether to close
+    this.setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
     this.addWindowListener(new java.awt.event.WindowAdapter() {
       public void windowClosing(java.awt.event.WindowEvent e) {
 	doExit();
       }
     });
+    if (Autosave.interval > 0) {
+      javax.swing.Timer timer = new javax.swing.Timer(Autosave.interval * 1000,
+	  new java.awt.event.ActionListener() {
+	    public void actionPerformed(java.awt.event.ActionEvent e) {
+	      autosave();
+	    }
+	  });
+      timer.start();
+    }
   }
 
   private void doExit() {
@@ -1073,7 +1221,27 @@ public class DGA extends JFrame implements HyperlinkListener {
 	  "Unsaved Annotations", JOptionPane.YES_NO_CANCEL_OPTION,
 	  JOptionPane.INFORMATION_MESSAGE)) {
       case JOptionPane.YES_OPTION:
-	save();
+	// exit once all the changed tabs with a file are saved
+	final Vector<CorpusPane> changed = new Vector<CorpusPane>();
+	for (int i = 0; i < corpusTabs.getTabCount(); i++) {
+	  CorpusPane pane = (CorpusPane)corpusTabs.getComponentAt(i);
+	  if (pane.hasChanged && !pane.loading()
+	      && pane.getCorpus().docFile != null)
+	    changed.add(pane);
+	}
+	if (changed.isEmpty())
+	  break;
+	final int[] pending = { changed.size() };
+	for (CorpusPane pane : changed)
+	  save(pane, new Runnable() {
+	    public void run() {
+	      if (--pending[0] == 0) System.exit(0);
+	    }
+	  });
+	return;
+      case JOptionPane.NO_OPTION:
+	for (int i = 0; i < corpusTabs.getTabCount(); i++)
+	  ((CorpusPane)corpusTabs.getComponentAt(i)).getCorpus().discardJournal();
 	break;
       case JOptionPane.CANCEL_OPTION:
 	return;
@@ -1114,16 +1282,17 @@ public class DGA extends JFrame implements HyperlinkListener {
 
     public boolean accept(File file) {
       if (file.isDirectory()) return true;
-      String s = file.getName();
+      String s = Gzip.path(file);
       int i = s.lastIndexOf('.');
       if (i > 0 && i < s.length() - 1) s = s.substring(i + 1);
       return s != null
 	  && (s.equalsIgnoreCase("xml") || s.equalsIgnoreCase("tsv") ||
-	      s.equalsIgnoreCase("conll") || s.equalsIgnoreCase("conllu"));
+	      s.equalsIgnoreCase("conll") || s.equalsIgnoreCase("conllu") ||
+	      s.equalsIgnoreCase("dgab"));
     }
 
     public String getDescription() {
-      return "XML, CoNLL file";
+      return "XML, CoNLL, DGA binary file, possibly gzipped";
     }
   }
 
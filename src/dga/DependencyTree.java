@@ -0,0 +1,239 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.util.Arrays;
+
+/**
+ * A view of the dependency tree of a sentence, computed in linear time
+ * from the head offsets of SentenceTree.parents: absolute heads, children
+ * of each token in compressed sparse row form, depth and the span of each
+ * subtree, and the arcs in order of length.
+ * During annotation a sentence may be only partially attached, or even
+ * contain cycles: unattached tokens are the top of their own subtree,
+ * while tokens on a cycle, or below one, have no depth nor span.
+ * The view is not updated by edits: Sentence.tree() builds a new one after
+ * an edit.
+ *
+ * @author Attardi
+ *
+ */
+public class DependencyTree {
+
+  static final int root	      = -1;	///< head of tokens attached to root
+  static final int unattached = -2;	///< head of tokens without a link
+
+  DependencyTree(int[] parents) {
+    int n = parents.length;
+    heads = new int[n];
+    childStart = new int[n + 1];
+    for (int i = 0; i < n; i++) {
+      int offset = parents[i];
+      int head = (offset == 0) ? unattached : (offset == Integer.MAX_VALUE)
+	  ? root : i + offset;
+      if (head >= n || head < unattached) head = unattached; // out of range
+      heads[i] = head;
+      if (head >= 0) childStart[head + 1]++;
+    }
+    for (int i = 0; i < n; i++)
+      childStart[i + 1] += childStart[i];
+    // children in order, by counting sort on heads
+    children = new int[childStart[n]];
+    int[] next = Arrays.copyOf(childStart, n);
+    for (int i = 0; i < n; i++)
+      if (heads[i] >= 0) children[next[heads[i]]++] = i;
+    // arcs by length, then by dependent
+    int[] lengths = new int[n + 1];
+    for (int i = 0; i < n; i++)
+      if (heads[i] >= 0) lengths[Math.abs(heads[i] - i)]++;
+    int arcs = 0;
+    for (int s = 0; s <= n; s++) {
+      int count = lengths[s];
+      lengths[s] = arcs;
+      arcs += count;
+    }
+    byLength = new int[arcs];
+    for (int i = 0; i < n; i++)
+      if (heads[i] >= 0) byLength[lengths[Math.abs(heads[i] - i)]++] = i;
+    // depth, span and preorder from each top, iteratively
+    depths = new int[n];
+    lefts = new int[n];
+    rights = new int[n];
+    preorder = new int[n];
+    sizes = new int[n];
+    Arrays.fill(depths, -1);
+    int[] stack = new int[n];
+    int[] cursor = new int[n];	// next child to visit
+    int visited = 0;
+    for (int top = 0; top < n; top++) {
+      if (heads[top] >= 0) continue;
+      int sp = 0;
+      stack[sp++] = top;
+      enter(top, 0, visited++);
+      while (sp > 0) {
+	int node = stack[sp - 1];
+	if (cursor[node] < childStart[node + 1] - childStart[node]) {
+	  int child = children[childStart[node] + cursor[node]++];
+	  enter(child, depths[node] + 1, visited++);
+	  stack[sp++] = child;
+	} else {
+	  sp--;
+	  if (sp > 0) {
+	    int parent = stack[sp - 1];
+	    lefts[parent] = Math.min(lefts[parent], lefts[node]);
+	    rights[parent] = Math.max(rights[parent], rights[node]);
+	    sizes[parent] += sizes[node];
+	  }
+	}
+      }
+    }
+    cyclic = visited < n;
+  }
+
+  private void enter(int node, int depth, int order) {
+    depths[node] = depth;
+    lefts[node] = rights[node] = node;
+    preorder[node] = order;
+    sizes[node] = 1;
+  }
+
+  /**
+   * @return the number of tokens.
+   */
+  public int length() {
+    return heads.length;
+  }
+
+  /**
+   * @return the index of the head of token i, or root or unattached.
+   */
+  public int head(int i) {
+    return heads[i];
+  }
+
+  /**
+   * @return the position in child() of the first child of token i.
+   *	     The children of i, in order, end at childStart(i + 1).
+   */
+  public int childStart(int i) {
+    return childStart[i];
+  }
+
+  /**
+   * @return the token at position k among children.
+   */
+  public int child(int k) {
+    return children[k];
+  }
+
+  /**
+   * @return the number of children of token i.
+   */
+  public int childCount(int i) {
+    return childStart[i + 1] - childStart[i];
+  }
+
+  /**
+   * @return the number of arcs between tokens, i.e. excluding root links.
+   */
+  public int arcs() {
+    return byLength.length;
+  }
+
+  /**
+   * @return the dependent of the k-th arc, by increasing length and, for
+   *	     equal length, by position of the dependent.
+   */
+  public int arcByLength(int k) {
+    return byLength[k];
+  }
+
+  /**
+   * @return the distance of token i from the top of its subtree, or -1 if
+   *	     i is on or below a cycle.
+   */
+  public int depth(int i) {
+    return depths[i];
+  }
+
+  /**
+   * @return the first token in the subtree of token i.
+   */
+  public int left(int i) {
+    return lefts[i];
+  }
+
+  /**
+   * @return the last token in the subtree of token i.
+   */
+  public int right(int i) {
+    return rights[i];
+  }
+
+  /**
+   * @return the number of tokens in the subtree of token i.
+   */
+  public int size(int i) {
+    return sizes[i];
+  }
+
+  /**
+   * @return whether the heads contain a cycle.
+   */
+  public boolean isCyclic() {
+    return cyclic;
+  }
+
+  /**
+   * @return whether token a dominates token b, i.e. b is in the subtree of
+   *	     a, including a itself.
+   */
+  public boolean dominates(int a, int b) {
+    if (depths[a] < 0 || depths[b] < 0) return false;
+    return preorder[a] <= preorder[b] && preorder[b] < preorder[a] + sizes[a];
+  }
+
+  /**
+   * @return whether the subtree of token i covers a contiguous span.
+   */
+  public boolean isContiguous(int i) {
+    return depths[i] >= 0 && rights[i] - lefts[i] + 1 == sizes[i];
+  }
+
+  /**
+   * @return whether the arc from token i to its head is projective, i.e. its
+   *	     head dominates all tokens in between.
+   */
+  public boolean isProjective(int i) {
+    int head = heads[i];
+    if (head < 0) return true;
+    int from = Math.min(i, head);
+    int to = Math.max(i, head);
+    for (int k = from + 1; k < to; k++)
+      if (!dominates(head, k)) return false;
+    return true;
+  }
+
+  /**
+   * @return whether the tree is projective, i.e. every subtree covers a
+   *	     contiguous span.
+   */
+  public boolean isProjective() {
+    if (cyclic) return false;
+    for (int i = 0; i < heads.length; i++)
+      if (!isContiguous(i)) return false;
+    return true;
+  }
+
+  private final int[]	  heads;	///< absolute head of each token
+  private final int[]	  childStart;	///< first child of each token
+  private final int[]	  children;	///< children, grouped by head
+  private final int[]	  byLength;	///< dependents by arc length
+  private final int[]	  depths;
+  private final int[]	  lefts;	///< first token of each subtree
+  private final int[]	  rights;	///< last token of each subtree
+  private final int[]	  preorder;	///< position in a preorder visit
+  private final int[]	  sizes;	///< tokens in each subtree
+  private final boolean	  cyclic;
+}
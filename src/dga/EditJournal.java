@@ -0,0 +1,298 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the edits made to a corpus since it was last
+ * saved, kept next to the corpus file (.dgaj).
+ * Each edit is written and flushed to disk before it is applied, as a
+ * record setting one field of one token, so that the edits can be replayed
+ * after a crash by opening the corpus again.
+ * The header records the length and time of the corpus file the edits
+ * apply to: a journal for a different version of the file is discarded.
+ * A save to the corpus file compacts the journal, dropping the edits that
+ * it contains.
+ *
+ * Each record consists of:
+ *	payload length, payload, CRC32 of payload
+ * where payload is:
+ *	sentence token field value
+ * A torn record at the end, due to a crash while writing it, is dropped.
+ *
+ * @author Attardi
+ *
+ */
+class EditJournal implements Closeable {
+
+  static final int  magic   = 0x4447414A;	// "DGAJ"
+  static final int  version = 1;
+
+  static final String extension = ".dgaj";
+
+  static final int headerSize = 4 + 2 + 8 + 8;
+
+  /// Fields of a token set by records
+
+  static final byte parentField = 0;
+  static final byte depField    = 1;
+  static final byte tagField    = 2;
+  static final byte formField   = 3;
+
+  /**
+   * Journal for the corpus in docFile. The journal file is created at the
+   * first edit.
+   */
+  EditJournal(File docFile) {
+    this.docFile = docFile;
+    file = new File(docFile.getPath() + extension);
+  }
+
+  /**
+   * Apply to corpus the edits recorded in the journal file, if it applies
+   * to the current version of docFile. Sentences edited are marked changed.
+   *
+   * @return the number of edits applied.
+   * @throws IOException
+   */
+  int replay(Corpus corpus) throws IOException {
+    if (!file.exists()) return 0;
+    FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+	StandardOpenOption.WRITE);
+    int count = 0;
+    long valid = headerSize;	// end of last complete record
+    try {
+      DataInputStream is = new DataInputStream(new BufferedInputStream(
+	  Channels.newInputStream(in)));
+      try {
+	if (is.readInt() != magic || is.readShort() != version
+	    || is.readLong() != docFile.length()
+	    || is.readLong() != docFile.lastModified()) {
+	  in.close();
+	  file.delete();
+	  return 0;
+	}
+      } catch (EOFException e) {
+	in.close();
+	file.delete();
+	return 0;
+      }
+      CRC32 crc = new CRC32();
+      while (true) {
+	byte[] payload;
+	try {
+	  int length = BinaryCorpus.readVarint(is);
+	  payload = new byte[length];
+	  is.readFully(payload);
+	  crc.reset();
+	  crc.update(payload);
+	  if (is.readInt() != (int)crc.getValue()) break;
+	  valid += varintSize(length) + length + 4;
+	} catch (EOFException e) {
+	  break;
+	}
+	if (apply(corpus, new DataInputStream(new ByteArrayInputStream(payload))))
+	  count++;
+      }
+      // drop a torn record, so that new ones follow the last complete one
+      in.truncate(valid);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    channel = in;
+    records = valid - headerSize;
+    return count;
+  }
+
+  /**
+   * Apply the edit in record to corpus.
+   *
+   * @return false if the edit does not apply to corpus.
+   */
+  private static boolean apply(Corpus corpus, DataInputStream record)
+      throws IOException {
+    int index = BinaryCorpus.readVarint(record);
+    Sentence sentence = corpus.getSentence(index);
+    int token = BinaryCorpus.readVarint(record);
+    if (sentence == null || token >= sentence.length()) return false;
+    switch (record.readByte()) {
+    case parentField:
+      int head = BinaryCorpus.readVarint(record);
+      sentence.setParent(token, (head == 0) ? 0 : (head == 1)
+	  ? Integer.MAX_VALUE : ((head - 2) >>> 1) ^ -((head - 2) & 1));
+      break;
+    case depField:
+      sentence.deps[token] = corpus.vocabulary.intern(BinaryCorpus
+	  .readString(record));
+      break;
+    case tagField:
+      sentence.tags[token] = corpus.vocabulary.intern(BinaryCorpus
+	  .readString(record));
+      break;
+    case formField:
+      sentence.forms[token] = corpus.vocabulary.intern(BinaryCorpus
+	  .readString(record));
+      break;
+    default:
+      return false;
+    }
+    sentence.changed(true);
+    corpus.setSentence(index, sentence);
+    corpus.sentenceChanged(index);
+    return true;
+  }
+
+  /**
+   * Record that the head of token in sentence is set to parent, using the
+   * offset encoding of Sentence.parents.
+   *
+   * @throws IOException
+   */
+  void log(int sentence, int token, int parent) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+    DataOutputStream out = new DataOutputStream(bytes);
+    BinaryCorpus.writeVarint(out, sentence);
+    BinaryCorpus.writeVarint(out, token);
+    out.writeByte(parentField);
+    BinaryCorpus.writeVarint(out, parent == 0 ? 0 : parent == Integer.MAX_VALUE
+	? 1 : ((parent << 1) ^ (parent >> 31)) + 2);
+    append(bytes.toByteArray());
+  }
+
+  /**
+   * Record that field of token in sentence is set to value.
+   *
+   * @throws IOException
+   */
+  void log(int sentence, int token, byte field, String value)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+    DataOutputStream out = new DataOutputStream(bytes);
+    BinaryCorpus.writeVarint(out, sentence);
+    BinaryCorpus.writeVarint(out, token);
+    out.writeByte(field);
+    BinaryCorpus.writeString(out, value);
+    append(bytes.toByteArray());
+  }
+
+  /**
+   * Append a record with payload to the journal, with a single write.
+   */
+  private void append(byte[] payload) throws IOException {
+    if (channel == null) create();
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 8);
+    DataOutputStream out = new DataOutputStream(bytes);
+    BinaryCorpus.writeVarint(out, payload.length);
+    out.write(payload);
+    out.writeInt((int)crc.getValue());
+    ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+    long pos = headerSize + records;
+    while (record.hasRemaining())
+      pos += channel.write(record, pos);
+    channel.force(false);
+    records = pos - headerSize;
+  }
+
+  /**
+   * Start a new journal file for the current version of docFile.
+   */
+  private void create() throws IOException {
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+	StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+	StandardOpenOption.TRUNCATE_EXISTING);
+    channel.write(header());
+    records = 0;
+  }
+
+  private ByteBuffer header() {
+    ByteBuffer header = ByteBuffer.allocate(headerSize);
+    header.putInt(magic).putShort((short)version).putLong(docFile.length())
+	.putLong(docFile.lastModified());
+    header.flip();
+    return header;
+  }
+
+  /**
+   * @return the position after the last record, to be passed to compact().
+   */
+  long position() {
+    return records;
+  }
+
+  /**
+   * Drop the records before position, which precede a save of docFile, and
+   * make the journal apply to the saved version of docFile.
+   *
+   * @throws IOException
+   */
+  void compact(long position) throws IOException {
+    if (channel == null) return;
+    if (position >= records) {
+      discard();
+      return;
+    }
+    File temp = IncrementalWriter.createTemp(file);
+    try {
+      FileChannel out = FileChannel.open(temp.toPath(),
+	  StandardOpenOption.WRITE);
+      try {
+	out.write(header());
+	long pos = headerSize + position;
+	long end = headerSize + records;
+	while (pos < end)
+	  pos += channel.transferTo(pos, end - pos, out);
+	out.force(true);
+      } finally {
+	out.close();
+      }
+      channel.close();
+      try {
+	IncrementalWriter.move(temp, file);
+	records -= position;
+      } finally {
+	channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+	    StandardOpenOption.WRITE);
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+
+  /**
+   * Delete the journal, forgetting the edits it records.
+   */
+  void discard() throws IOException {
+    close();
+    file.delete();
+    records = 0;
+  }
+
+  public void close() throws IOException {
+    if (channel != null) channel.close();
+    channel = null;
+  }
+
+  private static int varintSize(int v) {
+    int size = 1;
+    while ((v & ~0x7F) != 0) {
+      v >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private final File	docFile;
+  private final File	file;
+  private FileChannel	channel;	///< open journal, if any
+  private long		records = 0;	///< bytes of records in journal
+}
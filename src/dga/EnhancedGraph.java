@@ -0,0 +1,229 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The enhanced dependency graph of a sentence, from the DEPS column of
+ * CoNLL-U, where each word lists its heads as:
+ *	head:label|head:label
+ * or _ if it has none.
+ * Nodes are numbered as in CoNLL-U: 0 is the root, word i of the sentence
+ * is node i + 1.
+ * Edges are stored in compressed sparse row form: the in-edges of node v
+ * are those from inStart(v) to inStart(v + 1), in the order of the column;
+ * the out-edges of each node are indexed in the same way, so that both can
+ * be traversed without allocation.
+ * The graph is immutable, and labels are shared instances from the
+ * vocabulary of the corpus.
+ *
+ * @author Attardi
+ *
+ */
+public class EnhancedGraph {
+
+  /**
+   * Parse the DEPS column of a sentence.
+   *
+   * @param column the DEPS value of each word.
+   * @param labels where labels are interned.
+   * @return the graph, or null if a value is not a list of edges whose
+   *	     heads are within the sentence, or would not be written back the
+   *	     same.
+   */
+  public static EnhancedGraph parse(String[] column, Vocabulary labels) {
+    int n = column.length;
+    int[] inOffsets = new int[n + 2];
+    int edges = 0;
+    for (int i = 0; i < n; i++) {
+      String value = column[i];
+      if (value == null || value.isEmpty()) return null;
+      if (!value.equals("_")) {
+	edges++;
+	for (int c = 0; c < value.length(); c++)
+	  if (value.charAt(c) == '|') edges++;
+      }
+      inOffsets[i + 2] = edges;
+    }
+    int[] heads = new int[edges];
+    String[] rels = new String[edges];
+    int e = 0;
+    for (int i = 0; i < n; i++) {
+      String value = column[i];
+      if (value.equals("_")) continue;
+      int start = 0;
+      while (start <= value.length()) {
+	int end = value.indexOf('|', start);
+	if (end < 0) end = value.length();
+	int colon = value.indexOf(':', start);
+	if (colon < 0 || colon >= end) return null;
+	int head = number(value, start, colon);
+	if (head < 0 || head > n) return null;
+	heads[e] = head;
+	rels[e] = labels.intern(value.substring(colon + 1, end));
+	e++;
+	start = end + 1;
+      }
+    }
+    return new EnhancedGraph(n, inOffsets, heads, rels);
+  }
+
+  /**
+   * @return the number in s[from, to), or -1 if not written in canonical
+   *	     form.
+   */
+  private static int number(String s, int from, int to) {
+    if (from == to || to - from > 9
+	|| (s.charAt(from) == '0' && to - from > 1))
+      return -1;
+    int n = 0;
+    for (int i = from; i < to; i++) {
+      int d = s.charAt(i) - '0';
+      if (d < 0 || d > 9) return -1;
+      n = n * 10 + d;
+    }
+    return n;
+  }
+
+  private EnhancedGraph(int words, int[] inOffsets, int[] heads,
+      String[] rels) {
+    this.words = words;
+    this.inOffsets = inOffsets;
+    this.heads = heads;
+    this.rels = rels;
+    dependents = new int[heads.length];
+    for (int v = 1; v <= words; v++)
+      Arrays.fill(dependents, inOffsets[v], inOffsets[v + 1], v);
+    // out-edges by counting sort on heads
+    outOffsets = new int[words + 2];
+    for (int head : heads)
+      outOffsets[head + 1]++;
+    for (int v = 0; v <= words; v++)
+      outOffsets[v + 1] += outOffsets[v];
+    outEdges = new int[heads.length];
+    int[] next = Arrays.copyOf(outOffsets, words + 1);
+    for (int e = 0; e < heads.length; e++)
+      outEdges[next[heads[e]]++] = e;
+  }
+
+  /**
+   * @return the number of nodes, including the root.
+   */
+  public int nodes() {
+    return words + 1;
+  }
+
+  /**
+   * @return the number of edges.
+   */
+  public int edges() {
+    return heads.length;
+  }
+
+  /**
+   * @return the first in-edge of node v. The in-edges of v end at
+   *	     inStart(v + 1).
+   */
+  public int inStart(int v) {
+    return inOffsets[v];
+  }
+
+  /**
+   * @return the first position of the out-edges of node v in outEdge(). The
+   *	     out-edges of v end at outStart(v + 1).
+   */
+  public int outStart(int v) {
+    return outOffsets[v];
+  }
+
+  /**
+   * @return the edge at position k among out-edges.
+   */
+  public int outEdge(int k) {
+    return outEdges[k];
+  }
+
+  /**
+   * @return the head node of edge e.
+   */
+  public int head(int e) {
+    return heads[e];
+  }
+
+  /**
+   * @return the dependent node of edge e.
+   */
+  public int dependent(int e) {
+    return dependents[e];
+  }
+
+  /**
+   * @return the label of edge e.
+   */
+  public String label(int e) {
+    return rels[e];
+  }
+
+  /**
+   * @return whether the graph contains a directed cycle.
+   */
+  public boolean hasCycle() {
+    // Kahn's algorithm: a cycle remains when no node is left without
+    // pending in-edges
+    int[] pending = new int[words + 1];
+    for (int v = 1; v <= words; v++)
+      pending[v] = inOffsets[v + 1] - inOffsets[v];
+    int[] queue = new int[words + 1];
+    int tail = 0;
+    for (int v = 0; v <= words; v++)
+      if (pending[v] == 0) queue[tail++] = v;
+    for (int head = 0; head < tail; head++) {
+      int v = queue[head];
+      for (int k = outOffsets[v]; k < outOffsets[v + 1]; k++) {
+	int d = dependents[outEdges[k]];
+	if (--pending[d] == 0) queue[tail++] = d;
+      }
+    }
+    return tail <= words;
+  }
+
+  /**
+   * Write the DEPS value of node v to out.
+   */
+  public void write(Appendable out, int v) throws IOException {
+    int start = inOffsets[v];
+    int end = inOffsets[v + 1];
+    if (start == end) {
+      out.append('_');
+      return;
+    }
+    for (int e = start; e < end; e++) {
+      if (e > start) out.append('|');
+      out.append(Integer.toString(heads[e])).append(':').append(rels[e]);
+    }
+  }
+
+  /**
+   * @return the DEPS value of node v.
+   */
+  public String toString(int v) {
+    StringBuilder s = new StringBuilder();
+    try {
+      write(s, v);
+    } catch (IOException e) {
+      // cannot happen on a StringBuilder
+    }
+    return s.toString();
+  }
+
+  private final int	 words;
+  private final int[]	 inOffsets;	///< first in-edge of each node
+  private final int[]	 heads;		///< head of each edge
+  private final String[] rels;		///< label of each edge
+  private final int[]	 dependents;	///< dependent of each edge
+  private final int[]	 outOffsets;	///< first out-edge of each node
+  private final int[]	 outEdges;	///< edges by head
+}
@@ -0,0 +1,78 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+/**
+ * The <extra> element of a token, holding additional annotations that
+ * DgAnnotator does not handle.
+ * The element is kept as XML text, as captured while reading the corpus,
+ * and written back as is: a DOM node is built only when requested.
+ * The text has the layout of XmlPrinter for an element within <tok>.
+ *
+ * @author Attardi
+ *
+ */
+public class Extra {
+
+  /**
+   * Indentation of the element within <tok>.
+   */
+  static final String indent = "\n  ";
+
+  /**
+   * @param xml the text of the element, without leading indentation.
+   */
+  Extra(String xml) {
+    this.xml = xml;
+  }
+
+  Extra(Node node) {
+    this.node = node;
+    xml = XmlPrinter.NodeToString(node, indent).substring(indent.length());
+  }
+
+  /**
+   * @return the text of the element.
+   */
+  public String getXml() {
+    return xml;
+  }
+
+  /**
+   * Write the element to out, preceded by indent.
+   */
+  void write(Appendable out) throws IOException {
+    out.append(indent).append(xml);
+  }
+
+  /**
+   * @return the element as a DOM node, parsing its text on first use.
+   */
+  public synchronized Node getNode() {
+    if (node == null) {
+      try {
+	node = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+	    .parse(new InputSource(new StringReader(xml))).getDocumentElement();
+      } catch (Exception e) {
+	throw new IllegalStateException("malformed extra element: " + xml, e);
+      }
+    }
+    return node;
+  }
+
+  public String toString() {
+    return xml;
+  }
+
+  private final String xml;
+  private Node	       node;	///< parsed element, if requested
+}
@@ -0,0 +1,62 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Check that <extra> elements using namespaces, declared on them or on
+ * the enclosing elements, are saved so that the corpus can be read back
+ * with the same elements.
+ *
+ * Usage: java dga.ExtraRoundTrip
+ *
+ * @author Attardi
+ *
+ */
+public class ExtraRoundTrip {
+
+  static final String corpus = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<DGA language=\"it\" xmlns:y=\"http://example.org/y\">\n"
+      + "<s id=\"1\">\n"
+      + "<tok id=\"1\">\n"
+      + "  <orth>Il</orth>\n"
+      + "  <dep head=\"2\" type=\"det\" />\n"
+      + "  <extra><x:ann xmlns:x=\"http://example.org/x\" x:k=\"v\">"
+      + "<x:sub y:z=\"w\">t</x:sub>"
+      + "<plain xmlns=\"http://example.org/d\"><in/></plain></x:ann>"
+      + "<y:b/></extra>\n"
+      + "</tok>\n"
+      + "<tok id=\"2\">\n"
+      + "  <orth>cane</orth>\n"
+      + "  <dep head=\"0\" type=\"ROOT\" />\n"
+      + "</tok>\n"
+      + "</s>\n"
+      + "</DGA>\n";
+
+  public static void main(String[] args) throws Exception {
+    Corpus original = new Corpus(new ByteArrayInputStream(
+	corpus.getBytes(StandardCharsets.UTF_8)));
+    String extra = original.getSentence(0).extras.get(0).getXml();
+    File file = File.createTempFile("DGA", ".xml");
+    try {
+      if (!original.save(file)) fail("save failed");
+      // read back with a namespace aware parser
+      Corpus saved = new Corpus(file);
+      String reread = saved.getSentence(0).extras.get(0).getXml();
+      if (!reread.equals(extra))
+	fail("extra changed:\n" + extra + "\n" + reread);
+      saved.getSentence(0).extras.get(0).getNode();
+    } finally {
+      file.delete();
+    }
+    System.out.println("OK " + extra);
+  }
+
+  private static void fail(String message) {
+    System.err.println(message);
+    System.exit(1);
+  }
+}
@@ -0,0 +1,417 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.*;
+
+/**
+ * Transparent access to gzip compressed corpus files (.gz).
+ * The format of a compressed file is given by the extension preceding .gz,
+ * e.g. corpus.conllu.gz.
+ * A gzip file may consist of several members, as produced by concatenating
+ * compressed files, by appending to them or by tools like bgzip: each
+ * member records the size of its decompressed data, hence members can be
+ * decompressed in parallel, each into its own region of the output.
+ *
+ * @author Attardi
+ *
+ */
+class Gzip {
+
+  static final String extension = ".gz";
+
+  /**
+   * Size of buffers for compressed data.
+   */
+  static final int bufferSize = 1 << 16;
+
+  /**
+   * @return whether file is compressed.
+   */
+  static boolean applies(File file) {
+    return file.getName().endsWith(extension);
+  }
+
+  /**
+   * @return the path of file without the compression extension, from which
+   *	     its format is determined.
+   */
+  static String path(File file) {
+    String path = file.getPath();
+    return applies(file) ? path.substring(0, path.length()
+	- extension.length()) : path;
+  }
+
+  /**
+   * @return a stream reading the content of file, decompressing it if
+   *	     needed.
+   * @throws IOException
+   */
+  static InputStream open(File file) throws IOException {
+    return open(file, null);
+  }
+
+  /**
+   * @return a stream reading the content of file, decompressing it if
+   *	     needed, and recording in progress, if any, the bytes read from
+   *	     file.
+   * @throws IOException
+   */
+  static InputStream open(File file, LoadProgress progress)
+      throws IOException {
+    InputStream is = new FileInputStream(file);
+    if (progress != null) is = progress.monitor(is);
+    if (!applies(file)) return is;
+    try {
+      return new GZIPInputStream(is, bufferSize);
+    } catch (IOException e) {
+      is.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return a stream writing to os, compressing if file is compressed.
+   * @throws IOException
+   */
+  static OutputStream compress(File file, OutputStream os) throws IOException {
+    return applies(file) ? new GZIPOutputStream(os, bufferSize) : os;
+  }
+
+  /**
+   * Complete the compressed data written to os, without closing it.
+   *
+   * @throws IOException
+   */
+  static void finish(OutputStream os) throws IOException {
+    if (os instanceof DeflaterOutputStream)
+      ((DeflaterOutputStream)os).finish();
+    else
+      os.flush();
+  }
+
+  /**
+   * @return the size of the decompressed data of the last member of file,
+   *	     i.e. of the whole file if it has a single member, modulo 2^32.
+   * @throws IOException
+   */
+  static long size(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() < 18) return 0;
+      raf.seek(raf.length() - 4);
+      return Integer.reverseBytes(raf.readInt()) & 0xFFFFFFFFL;
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * @return the last n bytes, or fewer if shorter, of the content of file.
+   *	     Only the last members are decompressed: each is found by
+   *	     scanning back from its end for a header from which the data
+   *	     decompresses exactly up to the end.
+   * @throws IOException
+   */
+  static byte[] tail(File file, int n) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    ByteBuffer data;
+    try {
+      if (channel.size() > Integer.MAX_VALUE) return tail(open(file), n);
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      channel.close();
+    }
+    byte[] tail = new byte[0];
+    int end = data.limit();
+    while (tail.length < n && end > 0) {
+      byte[] last = null;
+      int start = end - 18;	// smallest member
+      for (; start >= 0; start--)
+	if (candidate(data, start)
+	    && (last = tail(data, start, end, n - tail.length)) != null)
+	  break;
+      if (last == null) return tail(open(file), n); // no member found
+      byte[] both = Arrays.copyOf(last, last.length + tail.length);
+      System.arraycopy(tail, 0, both, last.length, tail.length);
+      tail = both;
+      end = start;
+    }
+    return tail;
+  }
+
+  /**
+   * @return the last n bytes, or fewer if shorter, of the member in
+   *	     data[start, end), or null if not a member ending at end.
+   */
+  private static byte[] tail(ByteBuffer data, int start, int end, int n) {
+    ByteBuffer member = data.duplicate();
+    member.limit(end).position(start);
+    int body = header(member);
+    if (body < 0 || end - 8 < body) return null;
+    member.position(body).limit(end - 8);
+    byte[] tail = new byte[n];
+    int length = 0;
+    byte[] buf = new byte[bufferSize];
+    long size = 0;
+    CRC32 crc = new CRC32();
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(member);
+      while (!inflater.finished()) {
+	int k = inflater.inflate(buf);
+	if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+	  return null;
+	crc.update(buf, 0, k);
+	size += k;
+	length = keep(tail, length, buf, k);
+      }
+      // the member must end exactly before its trailer
+      if (inflater.getRemaining() != 0
+	  || (int)crc.getValue() != intLE(data, end - 8)
+	  || (int)size != intLE(data, end - 4))
+	return null;
+    } catch (DataFormatException e) {
+      return null;
+    } finally {
+      inflater.end();
+    }
+    return Arrays.copyOf(tail, length);
+  }
+
+  /**
+   * @return the last n bytes, or fewer if shorter, read from is, which is
+   *	     closed.
+   * @throws IOException
+   */
+  private static byte[] tail(InputStream is, int n) throws IOException {
+    byte[] tail = new byte[n];
+    int length = 0;
+    byte[] buf = new byte[bufferSize];
+    try {
+      int k;
+      while ((k = is.read(buf)) >= 0)
+	length = keep(tail, length, buf, k);
+    } finally {
+      is.close();
+    }
+    return Arrays.copyOf(tail, length);
+  }
+
+  /**
+   * Append buf[0, k) to the first length bytes of tail, keeping only the
+   * last tail.length ones.
+   *
+   * @return the new length of tail.
+   */
+  private static int keep(byte[] tail, int length, byte[] buf, int k) {
+    int n = tail.length;
+    if (k >= n) {
+      System.arraycopy(buf, k - n, tail, 0, n);
+      return n;
+    }
+    int keep = Math.min(length, n - k);
+    System.arraycopy(tail, length - keep, tail, 0, keep);
+    System.arraycopy(buf, 0, tail, keep, k);
+    return keep + k;
+  }
+
+  /**
+   * Decompress the whole content of file in memory, decompressing its
+   * members in parallel.
+   *
+   * @return the decompressed data, or null if too large for a buffer.
+   * @throws IOException
+   */
+  static ByteBuffer inflate(File file) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    ByteBuffer data;
+    try {
+      if (channel.size() > Integer.MAX_VALUE) return null;
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      channel.close();
+    }
+    int[] members = members(data);
+    // decompressed size of each member is in its trailer
+    long[] offsets = new long[members.length + 1];
+    for (int m = 0; m < members.length; m++) {
+      int end = (m + 1 < members.length) ? members[m + 1] : data.limit();
+      offsets[m + 1] = offsets[m] + (intLE(data, end - 4) & 0xFFFFFFFFL);
+    }
+    long size = offsets[members.length];
+    if (members.length > 1 && size <= maxSize
+	&& ParallelLoader.pool.getParallelism() > 1) {
+      byte[] out = new byte[(int)size];
+      if (inflate(data, members, offsets, out)) return ByteBuffer.wrap(out);
+    }
+    // a single member or a false member boundary: decompress sequentially
+    if (members.length > 1 || size == 0)
+      size = 4L * data.limit();	// estimate
+    byte[] out = new byte[(int)Math.min(size + 1, maxSize)];
+    int n = 0;
+    InputStream is = open(file);
+    try {
+      int k;
+      while ((k = is.read(out, n, out.length - n)) >= 0) {
+	n += k;
+	if (n == out.length) {
+	  if (out.length == maxSize) return null;
+	  out = Arrays.copyOf(out, (int)Math.min(2L * n, maxSize));
+	}
+      }
+    } finally {
+      is.close();
+    }
+    return ByteBuffer.wrap(out, 0, n);
+  }
+
+  /**
+   * Largest decompressed data held in a buffer.
+   */
+  static final int maxSize = Integer.MAX_VALUE - 8;
+
+  /**
+   * @return the little endian int at position pos of buf, the byte order
+   *	     of gzip.
+   */
+  private static int intLE(ByteBuffer buf, int pos) {
+    return (buf.get(pos) & 0xFF) | (buf.get(pos + 1) & 0xFF) << 8
+	| (buf.get(pos + 2) & 0xFF) << 16 | (buf.get(pos + 3) & 0xFF) << 24;
+  }
+
+  /**
+   * Decompress in parallel each member into its region of out.
+   *
+   * @return false if a member could not be decompressed, i.e. members
+   *	     were not at the boundaries found.
+   */
+  private static boolean inflate(final ByteBuffer data, final int[] members,
+      final long[] offsets, final byte[] out) {
+    Vector<Callable<Boolean>> tasks = new Vector<Callable<Boolean>>();
+    for (int m = 0; m < members.length; m++) {
+      final int start = members[m];
+      final int end = (m + 1 < members.length) ? members[m + 1] : data.limit();
+      final int off = (int)offsets[m];
+      final int len = (int)(offsets[m + 1] - offsets[m]);
+      tasks.add(new Callable<Boolean>() {
+	public Boolean call() {
+	  return member(data, start, end, out, off, len);
+	}
+      });
+    }
+    try {
+      for (Future<Boolean> result : ParallelLoader.pool.invokeAll(tasks))
+	if (!result.get()) return false;
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * Decompress the member in data[start, end) into out[off, off + len),
+   * checking its trailer.
+   */
+  private static boolean member(ByteBuffer data, int start, int end,
+      byte[] out, int off, int len) {
+    ByteBuffer member = data.duplicate();
+    member.limit(end).position(start);
+    int body = header(member);
+    if (body < 0 || end - 8 < body) return false;
+    member.position(body).limit(end - 8);
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(member);
+      int n = 0;
+      while (n < len && !inflater.finished()) {
+	int k = inflater.inflate(out, off + n, len - n);
+	if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+	  return false;
+	n += k;
+      }
+      if (n != len) return false;
+      // the member must end exactly before its trailer
+      if (!inflater.finished()) {
+	byte[] extra = new byte[1];
+	if (inflater.inflate(extra) != 0 || !inflater.finished()) return false;
+      }
+      if (inflater.getRemaining() != 0) return false;
+      CRC32 crc = new CRC32();
+      crc.update(out, off, len);
+      return (int)crc.getValue() == intLE(data, end - 8);
+    } catch (DataFormatException e) {
+      return false;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Parse the gzip header at the position of buf.
+   *
+   * @return the position of the compressed data, or -1 if not a header.
+   */
+  private static int header(ByteBuffer buf) {
+    int p = buf.position();
+    int limit = buf.limit();
+    if (limit - p < 10 || (buf.get(p) & 0xFF) != 0x1F
+	|| (buf.get(p + 1) & 0xFF) != 0x8B || buf.get(p + 2) != 8)
+      return -1;
+    int flags = buf.get(p + 3) & 0xFF;
+    if ((flags & 0xE0) != 0) return -1; // reserved
+    p += 10;
+    if ((flags & 4) != 0) {	// FEXTRA
+      if (limit - p < 2) return -1;
+      p += 2 + ((buf.get(p) & 0xFF) | (buf.get(p + 1) & 0xFF) << 8);
+    }
+    for (int f = 8; f <= 16; f <<= 1) // FNAME, FCOMMENT
+      if ((flags & f) != 0) {
+	while (p < limit && buf.get(p) != 0) p++;
+	p++;
+      }
+    if ((flags & 2) != 0)	// FHCRC
+      p += 2;
+    return (p <= limit) ? p : -1;
+  }
+
+  /**
+   * @return the offsets of the candidate members in data: positions where a
+   *	     plausible gzip header starts. Spurious ones within compressed
+   *	     data are detected when decompressing.
+   */
+  private static int[] members(ByteBuffer data) {
+    int[] members = new int[16];
+    int n = 1;			// the first member starts at 0
+    int limit = data.limit() - 18;	// smallest member
+    for (int i = 18; i <= limit; i++) {
+      if (!candidate(data, i)) continue;
+      if (n == members.length)
+	members = Arrays.copyOf(members, 2 * n);
+      members[n++] = i;
+    }
+    return Arrays.copyOf(members, n);
+  }
+
+  /**
+   * @return whether a plausible gzip header starts at position i of data,
+   *	     which must have at least 10 bytes from i.
+   */
+  private static boolean candidate(ByteBuffer data, int i) {
+    if (data.get(i) != 0x1F || (data.get(i + 1) & 0xFF) != 0x8B
+	|| data.get(i + 2) != 8 || (data.get(i + 3) & 0xE0) != 0)
+      return false;
+    int xfl = data.get(i + 8) & 0xFF;
+    int os = data.get(i + 9) & 0xFF;
+    return (xfl == 0 || xfl == 2 || xfl == 4) && (os <= 13 || os == 255);
+  }
+}
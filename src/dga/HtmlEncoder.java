@@ -1,6 +1,7 @@
 package dga;
 
-import java.util.Hashtable;
+import java.io.IOException;
+import java.io.Writer;
 
 /**
  * Converts a String to HTML by converting all disallowed characters to HTML-entities.
@@ -10,33 +11,91 @@ import java.util.Hashtable;
 public class HtmlEncoder
 {
 
-    private static Hashtable<Character, String> entityTableEncode = new Hashtable<Character, String>();
-
-    static {
-        entityTableEncode.put('<', "&lt;"); 
-        entityTableEncode.put('&', "&amp;"); 
-        entityTableEncode.put('"', "&quot;"); 
-    }
-
     /**
      * Converts a String to HTML by converting all special characters to HTML-entities.
-     * 
+     *
      *  * According to XML 1.1, only characters '<&"' are not allowed in attribute values.
      * (@see http://www.w3.org/TR/2006/REC-xml11-20060816/#sec-common-syn)
      */
     public final static String encode(String s)
+    {
+        return encode(s, false);
+    }
+
+    /**
+     * Converts s, escaping also '>' if gt is true.
+     * Returns s itself if it contains no special characters.
+     */
+    public final static String encode(String s, boolean gt)
     {
         if (s == null)
             return "";
-        StringBuffer sb = new StringBuffer(s.length() * 2);
+        int i = 0;
+        while (i < s.length() && entity(s.charAt(i), gt) == null)
+            ++i;
+        if (i == s.length())
+            return s;
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        try {
+            encode(s, gt, sb);
+        } catch (IOException e) {
+            // cannot happen on a StringBuilder
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes s to out, converting special characters to HTML-entities.
+     */
+    public final static void encode(String s, Appendable out) throws IOException
+    {
+        encode(s, false, out);
+    }
+
+    /**
+     * Writes s to out in a single pass, escaping also '>' if gt is true.
+     * Runs of plain characters are appended without copying.
+     */
+    public final static void encode(String s, boolean gt, Appendable out)
+        throws IOException
+    {
+        if (s == null)
+            return;
+        int start = 0;
         for (int i = 0; i < s.length(); ++i) {
-        	char ch = s.charAt(i);
-        	String chEnc = entityTableEncode.get(ch); 
-        	if (chEnc != null) 
-        		sb.append(chEnc); 
-        	else
-        		sb.append(ch);
+        	String chEnc = entity(s.charAt(i), gt);
+        	if (chEnc != null) {
+        		append(out, s, start, i);
+        		out.append(chEnc);
+        		start = i + 1;
+        	}
+        }
+        append(out, s, start, s.length());
+    }
+
+    /**
+     * Append s[start, end) to out, avoiding the substring that
+     * Writer.append(CharSequence, int, int) would create.
+     */
+    private static void append(Appendable out, String s, int start, int end)
+        throws IOException
+    {
+        if (start == 0 && end == s.length())
+            out.append(s);
+        else if (out instanceof Writer)
+            ((Writer)out).write(s, start, end - start);
+        else
+            out.append(s, start, end);
+    }
+
+    private static String entity(char ch, boolean gt)
+    {
+        switch (ch) {
+        case '<': return "&lt;";
+        case '&': return "&amp;";
+        case '"': return "&quot;";
+        case '>': return gt ? "&gt;" : null;
+        default: return null;
         }
-        return sb.toString(); 
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,227 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+
+/**
+ * Writes a new version of a CoNLL file by splicing re-serialized sentences
+ * into the bytes of the original one.
+ * Bytes of the original file between replaced sentences are copied with
+ * FileChannel.transferTo, so unchanged sentences keep their exact bytes
+ * and are never decoded.
+ * The new version is written to a temporary file in the same directory,
+ * which replaces the original on commit().
+ *
+ * @author Attardi
+ *
+ */
+class IncrementalWriter implements Closeable {
+
+  /**
+   * @param file the file to rewrite
+   * @throws IOException
+   */
+  IncrementalWriter(File file) throws IOException {
+    this.file = file;
+    source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    temp = createTemp(file);
+    target = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE);
+  }
+
+  /**
+   * @return the offset in the new file of byte pos of the original,
+   *	     assuming it is not in a replaced region.
+   */
+  long map(long pos) {
+    return written + pos - copied;
+  }
+
+  /**
+   * Replace bytes [start, end) of the original with sentence.
+   * Sentences are inserted when start == end.
+   *
+   * @return the offset of the sentence in the new file.
+   * @throws IOException
+   */
+  long replace(long start, long end, Sentence sentence) throws IOException {
+    copy(start);
+    copied = end;
+    if (start == end) terminate(start);
+    long offset = written;
+    buffer.setLength(0);
+    sentence.writeTab(buffer);
+    ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(buffer));
+    while (bytes.hasRemaining())
+      written += target.write(bytes);
+    return offset;
+  }
+
+  /**
+   * @return the number of bytes written so far to the new file.
+   */
+  long position() {
+    return written;
+  }
+
+  /**
+   * Make sure that what precedes pos in the original ends with a blank line,
+   * as it might not at end of file, so that a sentence inserted at pos is
+   * not merged with the previous one.
+   */
+  private void terminate(long pos) throws IOException {
+    write(separator(source, pos));
+  }
+
+  /**
+   * @return what must be written at pos in a CoNLL file so that the
+   *	     bytes before pos end with a blank line.
+   * @throws IOException
+   */
+  static String separator(FileChannel channel, long pos) throws IOException {
+    if (pos == 0) return "";
+    int n = (int)Math.min(pos, 3);
+    ByteBuffer tail = ByteBuffer.allocate(n);
+    while (tail.hasRemaining())
+      if (channel.read(tail, pos - n + tail.position()) < 0) return "";
+    return separator(tail.array(), n);
+  }
+
+  /**
+   * @return what must follow the n bytes b, the last ones of a CoNLL file,
+   *	     so that they end with a blank line.
+   */
+  static String separator(byte[] b, int n) {
+    if (n == 0) return "";
+    int i = n - 1;
+    if (b[i] != '\n') return "\n\n";
+    if (--i >= 0 && b[i] == '\r') i--;
+    return (i >= 0 && b[i] != '\n') ? "\n" : "";
+  }
+
+  private void write(String s) throws IOException {
+    ByteBuffer bytes = StandardCharsets.UTF_8.encode(s);
+    while (bytes.hasRemaining())
+      written += target.write(bytes);
+  }
+
+  /**
+   * Copy the original up to pos.
+   */
+  private void copy(long pos) throws IOException {
+    while (copied < pos) {
+      long n = source.transferTo(copied, pos - copied, target);
+      copied += n;
+      written += n;
+    }
+  }
+
+  /**
+   * Copy the rest of the original, make the new file durable and put it in
+   * place of the original.
+   *
+   * @throws IOException
+   */
+  void commit() throws IOException {
+    copy(source.size());
+    target.force(true);
+    target.close();
+    source.close();
+    move(temp, file);
+  }
+
+  /**
+   * Create a temporary file, to be moved in place of file, in the directory
+   * of the file it links to, if a symbolic link.
+   *
+   * @throws IOException
+   */
+  static File createTemp(File file) throws IOException {
+    return File.createTempFile("DGA", ".tmp", real(file).getParentFile());
+  }
+
+  /**
+   * Replace file with temp, atomically if the file system allows it, so
+   * that file is never seen partially written.
+   * A symbolic link is left in place and the file it links to is replaced,
+   * and temp gets the permissions, owner and group of the file replaced.
+   *
+   * @throws IOException
+   */
+  static void move(File temp, File file) throws IOException {
+    Path target = real(file).toPath();
+    if (Files.exists(target)) copyAttributes(target, temp.toPath());
+    try {
+      Files.move(temp.toPath(), target,
+	  StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * @return the file that file links to, or its absolute path if it does
+   *	     not exist.
+   */
+  private static File real(File file) {
+    try {
+      return file.toPath().toRealPath().toFile();
+    } catch (IOException e) {
+      return file.getAbsoluteFile();
+    }
+  }
+
+  /**
+   * Copy the POSIX owner, group and permissions of source to target, as far
+   * as allowed: only the superuser may change the owner.
+   */
+  private static void copyAttributes(Path source, Path target) {
+    PosixFileAttributes attrs;
+    try {
+      attrs = Files.readAttributes(source, PosixFileAttributes.class);
+    } catch (UnsupportedOperationException e) {
+      return;			// not a POSIX file system
+    } catch (IOException e) {
+      return;
+    }
+    PosixFileAttributeView view = Files.getFileAttributeView(target,
+	PosixFileAttributeView.class);
+    try {
+      view.setOwner(attrs.owner());
+    } catch (IOException e) {
+    }
+    try {
+      view.setGroup(attrs.group());
+    } catch (IOException e) {
+    }
+    try {
+      view.setPermissions(attrs.permissions());
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * Discard the new file, if not committed.
+   */
+  public void close() throws IOException {
+    source.close();
+    target.close();
+    temp.delete();
+  }
+
+  private final File	     file;
+  private final File	     temp;
+  private final FileChannel  source;
+  private final FileChannel  target;
+  private long		     copied  = 0;	///< bytes of original consumed
+  private long		     written = 0;	///< bytes of new file
+  private final StringBuilder buffer = new StringBuilder();
+}
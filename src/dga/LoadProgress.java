@@ -0,0 +1,89 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Progress of the loading of a corpus, in bytes read, shared between the
+ * thread reading it and the user interface, which can also cancel it.
+ * Cancellation is noticed by the reader at its next read.
+ *
+ * @author Attardi
+ *
+ */
+class LoadProgress {
+
+  /**
+   * @param total the number of bytes to read.
+   */
+  LoadProgress(long total) {
+    this.total = total;
+  }
+
+  /**
+   * Start over counting the bytes of a different input.
+   */
+  synchronized void reset(long total) {
+    this.total = total;
+    read = 0;
+  }
+
+  /**
+   * Record that bytes have been read, from any thread.
+   *
+   * @throws InterruptedIOException if loading has been cancelled.
+   */
+  synchronized void advance(long bytes) throws InterruptedIOException {
+    read += bytes;
+    if (cancelled) throw new InterruptedIOException("loading cancelled");
+  }
+
+  /**
+   * @return the percentage of the input read.
+   */
+  synchronized int percent() {
+    return (total <= 0) ? 0 : (int)Math.min(100, 100 * read / total);
+  }
+
+  void cancel() {
+    cancelled = true;
+  }
+
+  boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return a stream reading is, recording here the bytes read.
+   */
+  InputStream monitor(InputStream is) {
+    return new FilterInputStream(is) {
+      public int read() throws IOException {
+	int b = super.read();
+	if (b >= 0) advance(1);
+	return b;
+      }
+
+      public int read(byte[] b, int off, int len) throws IOException {
+	int n = super.read(b, off, len);
+	if (n > 0) advance(n);
+	return n;
+      }
+
+      public long skip(long n) throws IOException {
+	long skipped = super.skip(n);
+	advance(skipped);
+	return skipped;
+      }
+    };
+  }
+
+  private long		   total;	///< bytes to read
+  private long		   read	     = 0;
+  private volatile boolean cancelled = false;
+}
@@ -0,0 +1,328 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A corpus in CoNLL-U format whose file is memory mapped.
+ * A single scan of the file records the byte offset of each sentence, which
+ * is then decoded only when requested.
+ * Decoded sentences are kept in a small cache, while those that have been
+ * edited are retained until they are saved.
+ *
+ * @author Attardi
+ *
+ */
+public class MappedCorpus extends Corpus {
+
+  /**
+   * Files larger than this are opened as a MappedCorpus by Corpus.load().
+   */
+  static final long threshold = 64L << 20;
+
+  /**
+   * Maximum number of unchanged decoded sentences kept in memory.
+   */
+  static final int cacheSize = 1024;
+
+  /**
+   * Size of the window mapped at a time while indexing.
+   */
+  static final long window = 1L << 30;
+
+  /**
+   * Progress is reported every this many bytes while indexing.
+   */
+  static final int step = 1 << 22;
+
+  public MappedCorpus(File file) throws IOException {
+    super();
+    docFile = file;
+    read();
+  }
+
+  /**
+   * Create a corpus to be filled by load().
+   */
+  MappedCorpus() {
+    super();
+  }
+
+  /**
+   * Map docFile and index its sentences.
+   */
+  void read() throws IOException {
+    File file = docFile;
+    spans = true;
+    sourceLength = file.length();
+    sourceModified = file.lastModified();
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    long size = channel.size();
+    if (size <= Integer.MAX_VALUE)
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    try {
+      index(size);
+    } catch (IOException e) {	// cancelled
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Scan the file recording the offsets where each sentence starts.
+   * Like CorpusReader, each blank line terminates a sentence, and trailing
+   * lines are a sentence only if they contain tokens.
+   */
+  private void index(long size) throws IOException {
+    long[] starts = new long[1024];
+    int n = 0;
+    long start = 0;		// start of current sentence
+    long lineStart = 0;	// start of current line
+    boolean tokens = false;	// whether current sentence has token lines
+    byte first = 0;		// first byte of current line
+    for (long base = 0; base < size; base += window) {
+      long len = Math.min(window, size - base);
+      ByteBuffer buf = (mapped != null) ? mapped.duplicate()
+	  : channel.map(FileChannel.MapMode.READ_ONLY, base, len);
+      int off = (mapped != null) ? (int)base : 0;
+      for (int i = 0; i < len; i++) {
+	if (progress != null && i % step == 0 && i > 0) progress.advance(step);
+	byte b = buf.get(off + i);
+	long pos = base + i;
+	if (pos == lineStart) first = b;
+	if (b != '\n') continue;
+	long lineLen = pos - lineStart;
+	if (lineLen == 0 || (lineLen == 1 && first == '\r')) {
+	  if (n + 1 >= starts.length)
+	    starts = Arrays.copyOf(starts, 2 * starts.length);
+	  starts[n++] = start;
+	  start = pos + 1;
+	  tokens = false;
+	} else if (first != '#')
+	  tokens = true;
+	lineStart = pos + 1;
+      }
+    }
+    if (lineStart < size && first != '#')
+      tokens = true;
+    if (tokens) {
+      if (n + 1 >= starts.length)
+	starts = Arrays.copyOf(starts, n + 2);
+      starts[n++] = start;
+    }
+    starts[n] = size;
+    offsets = Arrays.copyOf(starts, n + 1);
+    length = n;
+  }
+
+  /**
+   * @return the bytes of the i-th sentence in the file.
+   */
+  ByteBuffer region(int i) throws IOException {
+    long start = offsets[i];
+    long end = offsets[i + 1];
+    if (mapped != null) {
+      ByteBuffer buf = mapped.duplicate();
+      buf.limit((int)end).position((int)start);
+      return buf;
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+  }
+
+  /**
+   * Decode the i-th sentence from the file.
+   */
+  Sentence decode(int i) throws Exception {
+    ByteBuffer region = region(i);
+    byte[] data = new byte[region.remaining()];
+    region.get(data);
+    CorpusReader reader = new CorpusReader(data, true, vocabulary);
+    Sentence sentence = reader.read();
+    reader.close();
+    if (sentence != null) sentence.id = Integer.toString(i);
+    return sentence;
+  }
+
+  public int size() {
+    return length + sentences.size();
+  }
+
+  public synchronized Sentence getSentence(int id) {
+    if (id < 0) return null;
+    if (id >= length)
+      return (id - length < sentences.size()) ? sentences.get(id - length) : null;
+    Sentence sentence = edited.get(id);
+    if (sentence != null) return sentence;
+    sentence = cache.get(id);
+    if (sentence != null) return sentence;
+    try {
+      sentence = decode(id);
+    } catch (Exception e) {
+      throw new IllegalStateException("malformed sentence " + id + " in "
+	  + docFile + ": " + e.getMessage(), e);
+    }
+    cache.put(id, sentence);
+    return sentence;
+  }
+
+  synchronized boolean setSentence(int i, Sentence sentence) {
+    if (i < length) {
+      cache.remove(i);
+      edited.put(i, sentence);
+      return true;
+    }
+    return super.setSentence(i - length, sentence);
+  }
+
+  /**
+   * Snapshot copying the sentences changed, which are either edited or
+   * in cache, and those appended.
+   */
+  synchronized Snapshot snapshot() {
+    Snapshot snapshot = new Snapshot(this);
+    for (Map.Entry<Integer, Sentence> entry : edited.entrySet())
+      if (entry.getValue().changed())
+	snapshot.copy(entry.getKey(), entry.getValue());
+    for (Map.Entry<Integer, Sentence> entry : cache.entrySet())
+      if (entry.getValue() != null && entry.getValue().changed())
+	snapshot.copy(entry.getKey(), entry.getValue());
+    for (int i = 0; i < sentences.size(); i++)
+      if (sentences.get(i).changed())
+	snapshot.copy(length + i, sentences.get(i));
+    return snapshot;
+  }
+
+  /**
+   * Sentences saved and no longer changed are returned to the cache, since
+   * they can be decoded again from the new file. They are pinned again by
+   * setSentence() when next edited.
+   */
+  synchronized void saved(Snapshot snapshot) {
+    super.saved(snapshot);
+    if (snapshot.offsets == null || offsets != snapshot.offsets)
+      return;			// not relocated to the saved file
+    Map<Integer, Sentence> clean = new HashMap<Integer, Sentence>();
+    Iterator<Map.Entry<Integer, Sentence>> it = edited.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Integer, Sentence> entry = it.next();
+      if (!entry.getValue().changed()) {
+	clean.put(entry.getKey(), entry.getValue());
+	it.remove();
+      }
+    }
+    // after iterating, since the cache may evict changed sentences to edited
+    cache.putAll(clean);
+  }
+
+  /**
+   * Rewrite only the sentences changed, without decoding the others.
+   * Offsets in the new file are computed without scanning it, and the new
+   * file is mapped by relocate().
+   */
+  boolean saveIncremental(Snapshot snapshot) throws IOException {
+    int n = snapshot.size();
+    long[] moved = new long[n + 1];
+    IncrementalWriter out = new IncrementalWriter(docFile);
+    try {
+      for (int i = 0; i < length; i++) {
+	if (snapshot.changed(i))
+	  moved[i] = out.replace(offsets[i], offsets[i + 1], snapshot.get(i));
+	else
+	  moved[i] = out.map(offsets[i]);
+      }
+      long end = offsets[length];
+      for (int i = length; i < n; i++)
+	moved[i] = out.replace(end, end, snapshot.get(i));
+      out.commit();
+    } finally {
+      out.close();
+    }
+    moved[n] = docFile.length();
+    snapshot.offsets = moved;
+    snapshot.length = moved[n];
+    snapshot.modified = docFile.lastModified();
+    return true;
+  }
+
+  /**
+   * Map the file written by saveIncremental().
+   * Sentences already decoded stay valid, since each sentence keeps its
+   * index.
+   */
+  synchronized boolean relocate(Snapshot snapshot) {
+    FileChannel saved;
+    MappedByteBuffer map = null;
+    try {
+      saved = FileChannel.open(docFile.toPath(), StandardOpenOption.READ);
+      long size = saved.size();
+      if (size <= Integer.MAX_VALUE)
+	map = saved.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } catch (IOException e) {
+      spans = false;		// keep reading the previous file
+      return false;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+    }
+    channel = saved;
+    mapped = map;
+    // appended sentences are now part of the file
+    int appended = snapshot.size() - length;
+    for (int i = 0; i < appended; i++)
+      edited.put(length + i, sentences.get(i));
+    sentences.subList(0, appended).clear();
+    offsets = snapshot.offsets;
+    length = snapshot.size();
+    sourceLength = snapshot.length;
+    sourceModified = snapshot.modified;
+    return true;
+  }
+
+  synchronized boolean hasChanges() {
+    for (Sentence sentence : edited.values())
+      if (sentence.changed()) return true;
+    for (Sentence sentence : cache.values())
+      if (sentence != null && sentence.changed()) return true;
+    for (Sentence sentence : sentences)
+      if (sentence.changed()) return true;
+    return false;
+  }
+
+  private FileChannel	    channel;
+  private MappedByteBuffer  mapped;	///< whole file, if small enough
+  private long[]	    offsets;	///< start of each sentence, plus end of file
+  private int		    length;	///< number of sentences in the file
+
+  /**
+   * Sentences edited since last saved: they are never evicted.
+   */
+  private final Map<Integer, Sentence> edited = new HashMap<Integer, Sentence>();
+
+  /**
+   * Recently decoded sentences. Those evicted after being edited are moved
+   * to edited, although sentences are normally moved there by setSentence()
+   * on their first edit.
+   */
+  @SuppressWarnings("serial")
+  private final Map<Integer, Sentence> cache = new LinkedHashMap<Integer, Sentence>(
+      cacheSize, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<Integer, Sentence> eldest) {
+      if (size() <= cacheSize) return false;
+      if (eldest.getValue() != null && eldest.getValue().changed())
+	edited.put(eldest.getKey(), eldest.getValue());
+      return true;
+    }
+  };
+}
@@ -0,0 +1,149 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * The comment lines preceding a sentence in CoNLL-U format, like:
+ *	# sent_id = 1
+ *	# text = The cat sat.
+ *	# newdoc id = doc1
+ *	# newpar
+ * kept in their order as a single array of key, value pairs.
+ * Lines of the form "# key = value" are split into key and value, lines
+ * "# key" have a null value, any other comment is kept as is with a null
+ * key, so that the lines are written back exactly as they were read.
+ * Keys are shared through the vocabulary of the corpus.
+ *
+ * @author Attardi
+ *
+ */
+public class Metadata {
+
+  static final String sentId = "sent_id";
+  static final String text   = "text";
+  static final String newdoc = "newdoc";
+
+  /**
+   * Build the metadata from the given comment lines, without line
+   * terminators.
+   */
+  Metadata(List<String> lines, Vocabulary vocabulary) {
+    entries = new String[2 * lines.size()];
+    int e = 0;
+    for (String line : lines) {
+      String key = null;
+      String value = line;
+      if (line.startsWith("# ")) {
+	int eq = line.indexOf(" = ", 2);
+	if (eq > 2) {
+	  key = line.substring(2, eq);
+	  value = line.substring(eq + 3);
+	} else if (eq < 0 && line.length() > 2) {
+	  key = line.substring(2);
+	  value = null;
+	}
+      }
+      entries[e++] = (key == null) ? null : vocabulary.intern(key);
+      entries[e++] = value;
+    }
+  }
+
+  /**
+   * Build the metadata from the comment lines in text, each terminated by a
+   * newline, as produced by toString().
+   */
+  static Metadata parse(String text, Vocabulary vocabulary) {
+    Vector<String> lines = new Vector<String>();
+    int start = 0;
+    int end;
+    while ((end = text.indexOf('\n', start)) >= 0) {
+      lines.add(text.substring(start, end));
+      start = end + 1;
+    }
+    if (start < text.length()) lines.add(text.substring(start));
+    return new Metadata(lines, vocabulary);
+  }
+
+  /**
+   * @return the number of comment lines.
+   */
+  public int size() {
+    return entries.length / 2;
+  }
+
+  /**
+   * @return the key of the i-th line, or null if it is not a "# key" line.
+   */
+  public String key(int i) {
+    return entries[2 * i];
+  }
+
+  /**
+   * @return the value of the i-th line, or null if it has just a key.
+   */
+  public String value(int i) {
+    return entries[2 * i + 1];
+  }
+
+  /**
+   * @return the value of the first line with the given key, or null.
+   */
+  public String get(String key) {
+    for (int e = 0; e < entries.length; e += 2)
+      if (key.equals(entries[e]))
+	return entries[e + 1];
+    return null;
+  }
+
+  /**
+   * @return the identifier of the document starting at the sentence, "" if
+   *	     it has no identifier, or null if none starts there.
+   */
+  public String getNewdoc() {
+    for (int e = 0; e < entries.length; e += 2) {
+      String key = entries[e];
+      if (key == null || !key.startsWith(newdoc)) continue;
+      if (key.length() == newdoc.length())
+	return (entries[e + 1] == null) ? "" : entries[e + 1];
+      if (key.equals(newdoc + " id"))
+	return entries[e + 1];
+    }
+    return null;
+  }
+
+  /**
+   * Write the comment lines to out, each terminated by a newline.
+   */
+  public void write(Appendable out) throws IOException {
+    for (int e = 0; e < entries.length; e += 2) {
+      String key = entries[e];
+      String value = entries[e + 1];
+      if (key != null) {
+	out.append("# ").append(key);
+	if (value != null) out.append(" = ").append(value);
+      } else
+	out.append(value);
+      out.append('\n');
+    }
+  }
+
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    try {
+      write(s);
+    } catch (IOException e) {
+      // cannot happen on a StringBuilder
+    }
+    return s.toString();
+  }
+
+  /**
+   * Keys and values of the lines, alternated.
+   */
+  private final String[] entries;
+}
@@ -0,0 +1,125 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The multiword tokens of a sentence in CoNLL-U format, i.e. lines like:
+ *	1-2	del	_	_	_	_	_	_	_	_
+ * spanning a range of the syntactic words of the sentence.
+ * Ranges are kept in order of their first word, as parallel arrays of
+ * first and last word (0 based, inclusive), surface form and the remaining
+ * columns of the line, so that the range covering a word is found by binary
+ * search.
+ *
+ * @author Attardi
+ *
+ */
+public class MultiWords {
+
+  MultiWords() {
+    this(4);
+  }
+
+  MultiWords(int capacity) {
+    firsts = new int[capacity];
+    lasts = new int[capacity];
+    forms = new String[capacity];
+    columns = new String[capacity];
+  }
+
+  /**
+   * Add a range, following those already added.
+   *
+   * @param first first word, 0 based.
+   * @param last last word, inclusive.
+   * @param form surface form.
+   * @param rest columns after the form, tab separated, or null if none.
+   */
+  void add(int first, int last, String form, String rest) {
+    if (size == firsts.length) {
+      int capacity = Math.max(4, 2 * size);
+      firsts = Arrays.copyOf(firsts, capacity);
+      lasts = Arrays.copyOf(lasts, capacity);
+      forms = Arrays.copyOf(forms, capacity);
+      columns = Arrays.copyOf(columns, capacity);
+    }
+    firsts[size] = first;
+    lasts[size] = last;
+    forms[size] = form;
+    columns[size] = rest;
+    size++;
+  }
+
+  /**
+   * @return the number of multiword tokens.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the first word of the m-th multiword token.
+   */
+  public int first(int m) {
+    return firsts[m];
+  }
+
+  /**
+   * @return the last word of the m-th multiword token.
+   */
+  public int last(int m) {
+    return lasts[m];
+  }
+
+  /**
+   * @return the surface form of the m-th multiword token.
+   */
+  public String form(int m) {
+    return forms[m];
+  }
+
+  /**
+   * @return the columns after the form of the m-th multiword token, or null.
+   */
+  public String rest(int m) {
+    return columns[m];
+  }
+
+  /**
+   * @return the index of the multiword token covering word, or -1 if none.
+   */
+  public int covering(int word) {
+    int lo = 0;
+    int hi = size - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (firsts[mid] > word)
+	hi = mid - 1;
+      else if (lasts[mid] < word)
+	lo = mid + 1;
+      else
+	return mid;
+    }
+    return -1;
+  }
+
+  /**
+   * Write the line of the m-th multiword token to out, in CoNLL-U format.
+   */
+  public void write(Appendable out, int m) throws IOException {
+    out.append(Integer.toString(firsts[m] + 1)).append('-')
+	.append(Integer.toString(lasts[m] + 1)).append('\t').append(forms[m]);
+    if (columns[m] != null) out.append('\t').append(columns[m]);
+    out.append('\n');
+  }
+
+  private int[]	   firsts;
+  private int[]	   lasts;
+  private String[] forms;
+  private String[] columns;
+  private int	   size = 0;
+}
@@ -0,0 +1,231 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.w3c.dom.Node;
+
+/**
+ * Loads a CoNLL file using several cores.
+ * The file is split into chunks at blank lines, i.e. at sentence
+ * boundaries, chunks are parsed in parallel on a ForkJoinPool and the
+ * sentences are joined in their original order, as soon as the chunks
+ * preceding them are parsed, numbering them and linking them to their
+ * containing document as a sequential read would.
+ *
+ * @author Attardi
+ *
+ */
+class ParallelLoader {
+
+  /**
+   * Files smaller than this are read sequentially.
+   */
+  static final long threshold = 8L << 20;
+
+  /**
+   * Minimum size of a chunk.
+   */
+  static final int minChunk = 1 << 20;
+
+  static ForkJoinPool pool = ForkJoinPool.commonPool();
+
+  /**
+   * The result of parsing a chunk.
+   */
+  static class Chunk {
+    int		     start, end;	///< bytes of the chunk
+    Vector<Sentence> sentences;
+    int		     lines;		///< number of lines in chunk
+    Node	     inherited;		///< placeholder for unknown document
+    Node	     context;		///< document open at end of chunk
+    ParseException   error;
+    Exception	     failure;
+  }
+
+  /**
+   * @return whether loading in parallel a file of the given size is
+   *         worthwhile.
+   */
+  static boolean applies(long size) {
+    return size > threshold && pool.getParallelism() > 1;
+  }
+
+  /**
+   * Load a CoNLL file in parallel.
+   *
+   * @param file
+   * @param conllu whether the file is in CoNLL-U format
+   * @param corpus where to store values and, while it is loaded with a
+   *	    progress, the sentences parsed
+   * @return the sentences in the file.
+   * @throws Exception
+   */
+  static Vector<Sentence> load(File file, boolean conllu, Corpus corpus)
+      throws Exception {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      if (channel.size() > Integer.MAX_VALUE) { // too large for one map
+	InputStream is = new FileInputStream(file);
+	if (corpus.progress != null) is = corpus.progress.monitor(is);
+	return corpus.read(new CorpusReader(is, conllu, corpus.vocabulary));
+      }
+      ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return load(data, conllu, corpus);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Load a corpus in CoNLL format from a buffer, in parallel.
+   * While corpus is loaded with a progress, the sentences of each chunk are
+   * added to it and announced as soon as those before them are.
+   *
+   * @param data
+   * @param conllu whether the data is in CoNLL-U format
+   * @param corpus where to store values and, while it is loaded with a
+   *	    progress, the sentences parsed
+   * @return the sentences in the data.
+   * @throws Exception
+   */
+  static Vector<Sentence> load(ByteBuffer data, boolean conllu, Corpus corpus)
+      throws Exception {
+    Chunk[] chunks = split(data);
+    Vector<Parse> tasks = new Vector<Parse>(chunks.length);
+    for (Chunk chunk : chunks) {
+      Parse task = new Parse(data, conllu, corpus.vocabulary, corpus.progress,
+	  chunk);
+      pool.execute(task);
+      tasks.add(task);
+    }
+    // join in original order, as chunks are parsed
+    boolean loading = corpus.progress != null;
+    Vector<Sentence> sentences = loading ? corpus.sentences
+	: new Vector<Sentence>();
+    int line = 0;
+    Node context = null;	// document open at end of previous chunk
+    try {
+      for (int c = 0; c < chunks.length; c++) {
+	tasks.get(c).join();
+	Chunk chunk = chunks[c];
+	if (chunk.failure != null) throw chunk.failure;
+	if (chunk.error != null) {
+	  int ln = line + chunk.error.getErrorOffset();
+	  throw new ParseException("malformed input file at line: " + ln, ln);
+	}
+	line += chunk.lines;
+	for (Sentence sentence : chunk.sentences) {
+	  sentence.id = Integer.toString(sentences.size());
+	  sentence.offset += chunk.start;
+	  if (chunk.inherited != null && sentence.context == chunk.inherited)
+	    sentence.context = context;
+	  sentences.add(sentence);
+	}
+	if (chunk.context != chunk.inherited || chunk.inherited == null)
+	  context = chunk.context;
+	if (loading) corpus.announce();
+      }
+    } finally {
+      // after a failure, drop the chunks not yet started
+      for (Parse task : tasks)
+	task.cancel(false);
+    }
+    return sentences;
+  }
+
+  /**
+   * Split data into chunks ending after a blank line.
+   */
+  static Chunk[] split(ByteBuffer data) {
+    int size = data.limit();
+    int parts = 4 * pool.getParallelism();
+    int target = Math.max(minChunk, size / parts + 1);
+    Vector<Chunk> chunks = new Vector<Chunk>();
+    int start = 0;
+    while (start < size) {
+      int end = boundary(data, Math.min(size, start + target));
+      Chunk chunk = new Chunk();
+      chunk.start = start;
+      chunk.end = end;
+      chunks.add(chunk);
+      start = end;
+    }
+    return chunks.toArray(new Chunk[chunks.size()]);
+  }
+
+  /**
+   * @return the position following the first blank line after from, or the
+   *         end of data.
+   */
+  static int boundary(ByteBuffer data, int from) {
+    int size = data.limit();
+    // move to start of a line
+    while (from < size && from > 0 && data.get(from - 1) != '\n')
+      from++;
+    for (int i = from; i < size; i++) {
+      byte b = data.get(i);
+      if (b == '\n' && i > 0 && data.get(i - 1) == '\n')
+	return i + 1;
+      if (b == '\n' && i > 1 && data.get(i - 1) == '\r'
+	  && data.get(i - 2) == '\n')
+	return i + 1;
+    }
+    return size;
+  }
+
+  /**
+   * Task parsing a chunk.
+   */
+  @SuppressWarnings("serial")
+  static class Parse extends RecursiveAction {
+    final ByteBuffer data;
+    final boolean    conllu;
+    final Vocabulary vocabulary;
+    final LoadProgress progress;
+    final Chunk	     chunk;
+
+    Parse(ByteBuffer data, boolean conllu, Vocabulary vocabulary,
+	LoadProgress progress, Chunk chunk) {
+      this.data = data;
+      this.conllu = conllu;
+      this.vocabulary = vocabulary;
+      this.progress = progress;
+      this.chunk = chunk;
+    }
+
+    protected void compute() {
+      ByteBuffer slice = data.duplicate();
+      slice.limit(chunk.end).position(chunk.start);
+      try {
+	InputStream is = new ByteBufferInputStream(slice);
+	if (progress != null) is = progress.monitor(is);
+	CorpusReader reader = new CorpusReader(is, conllu, vocabulary);
+	if (!conllu && chunk.start > 0) chunk.inherited = reader.inheritContext();
+	chunk.sentences = new Vector<Sentence>();
+	try {
+	  Sentence sentence;
+	  while ((sentence = reader.read()) != null)
+	    chunk.sentences.add(sentence);
+	} finally {
+	  chunk.lines = reader.getLineNumber();
+	  chunk.context = reader.getContext();
+	  reader.close();
+	}
+      } catch (ParseException e) {
+	chunk.error = e;
+      } catch (Exception e) {
+	chunk.failure = e;
+      }
+    }
+  }
+}
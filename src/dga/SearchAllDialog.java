@@ -0,0 +1,282 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Font;
+import java.util.Vector;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+/**
+ * Dialog for searching the corpora of all open tabs at once.
+ * The query is either a word or regular expression, as in the search of a
+ * CorpusPane, or a TreeQuery.
+ * Each corpus is searched by its own worker, and its results are added,
+ * under a heading with the tab name and the time taken, as soon as it
+ * completes: selecting one shows the sentence in the annotator.
+ *
+ * @author Attardi
+ *
+ */
+public class SearchAllDialog extends JDialog {
+
+  private static final long serialVersionUID = 1L;
+
+  public SearchAllDialog(DGA frame) {
+    super(frame, "Search All Tabs");
+    this.frame = frame;
+    setSize(new java.awt.Dimension(560, 400));
+    setContentPane(getSearchPane());
+  }
+
+  /**
+   * Heading of the results from the corpus of a tab.
+   */
+  static class Group {
+    final CorpusPane pane;
+    final String     title;
+    int		     count;
+    long	     time;	///< milliseconds taken
+
+    Group(CorpusPane pane, String title) {
+      this.pane = pane;
+      this.title = title;
+    }
+
+    public String toString() {
+      return title + ": " + count + " in " + time + " ms";
+    }
+  }
+
+  /**
+   * A result, i.e. a sentence of the corpus of a group, with the token
+   * matched, if any.
+   */
+  static class Hit {
+    final Group group;
+    final int	sentence;
+    final int	token;		///< -1 for a whole sentence
+
+    Hit(Group group, int sentence, int token) {
+      this.group = group;
+      this.sentence = sentence;
+      this.token = token;
+    }
+  }
+
+  /**
+   * This method initializes searchPane
+   *
+   * @return javax.swing.JPanel
+   */
+  private JPanel getSearchPane() {
+    if (searchPane == null) {
+      searchPane = new JPanel();
+      searchPane.setLayout(new BorderLayout());
+      JPanel top = new JPanel(new BorderLayout());
+      top.add(getQueryField(), BorderLayout.CENTER);
+      JPanel buttons = new JPanel(new BorderLayout());
+      treeBox = new JCheckBox("Tree query");
+      buttons.add(treeBox, BorderLayout.WEST);
+      buttons.add(getFindButton(), BorderLayout.EAST);
+      top.add(buttons, BorderLayout.EAST);
+      searchPane.add(top, BorderLayout.NORTH);
+      searchPane.add(new JScrollPane(getResultList()), BorderLayout.CENTER);
+      statusLabel = new JLabel(" ");
+      searchPane.add(statusLabel, BorderLayout.SOUTH);
+    }
+    return searchPane;
+  }
+
+  /**
+   * This method initializes queryField
+   *
+   * @return javax.swing.JTextField
+   */
+  private JTextField getQueryField() {
+    if (queryField == null) {
+      queryField = new JTextField();
+      queryField.setFont(new Font("Dialog", Font.PLAIN, 14));
+      queryField.addActionListener(new java.awt.event.ActionListener() {
+	public void actionPerformed(java.awt.event.ActionEvent e) {
+	  find();
+	}
+      });
+    }
+    return queryField;
+  }
+
+  /**
+   * This method initializes findButton
+   *
+   * @return javax.swing.JButton
+   */
+  private JButton getFindButton() {
+    if (findButton == null) {
+      findButton = new JButton("Find");
+      findButton.addActionListener(new java.awt.event.ActionListener() {
+	public void actionPerformed(java.awt.event.ActionEvent e) {
+	  find();
+	}
+      });
+    }
+    return findButton;
+  }
+
+  /**
+   * This method initializes resultList
+   *
+   * @return javax.swing.JList
+   */
+  private JList<Object> getResultList() {
+    if (resultList == null) {
+      resultList = new JList<Object>(results);
+      resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+      resultList.setCellRenderer(new ResultRenderer());
+      // fixed cell size, as in CorpusPane, so that only visible results
+      // are rendered
+      resultList.setFixedCellHeight(resultList.getFontMetrics(
+	  resultList.getFont()).getHeight() + 4);
+      resultList.setFixedCellWidth(1);
+      resultList.addListSelectionListener(new ListSelectionListener() {
+	public void valueChanged(ListSelectionEvent e) {
+	  Object value = resultList.getSelectedValue();
+	  if (!e.getValueIsAdjusting() && value instanceof Hit) {
+	    Hit hit = (Hit)value;
+	    frame.showSentence(hit.group.pane, hit.sentence);
+	  }
+	}
+      });
+    }
+    return resultList;
+  }
+
+  /**
+   * Renders a group as a bold heading, and a hit as the number and words
+   * of its sentence, with the token matched within brackets.
+   */
+  @SuppressWarnings("serial")
+  class ResultRenderer extends DefaultListCellRenderer {
+    public Component getListCellRendererComponent(JList<?> list, Object value,
+	int index, boolean isSelected, boolean cellHasFocus) {
+      if (value instanceof Group) {
+	super.getListCellRendererComponent(list, value.toString(), index,
+	    false, false);
+	setFont(getFont().deriveFont(Font.BOLD));
+	return this;
+      }
+      Hit hit = (Hit)value;
+      Sentence sentence = hit.group.pane.getCorpus().getSentence(hit.sentence);
+      StringBuilder s = new StringBuilder("   ");
+      s.append(hit.sentence + 1).append(':');
+      for (int i = 0; sentence != null && i < sentence.length(); i++) {
+	s.append(' ');
+	if (i == hit.token) s.append('[');
+	s.append(sentence.forms[i]);
+	if (i == hit.token) s.append(']');
+      }
+      return super.getListCellRendererComponent(list, s.toString(), index,
+	  isSelected, cellHasFocus);
+    }
+  }
+
+  /**
+   * Search the corpora of all tabs, each with its own worker, discarding
+   * the results of a previous search still running.
+   */
+  private void find() {
+    final String text = queryField.getText();
+    if (text.equals("")) return;
+    TreeQuery treeQuery = null;
+    try {
+      if (treeBox.isSelected())
+	treeQuery = new TreeQuery(text);
+      else
+	java.util.regex.Pattern.compile(text);
+    } catch (IllegalArgumentException e) {
+      // includes PatternSyntaxException
+      JOptionPane.showMessageDialog(this, e.getMessage(), "Search All Tabs",
+	  JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    final TreeQuery query = treeQuery;
+    final int search = ++searches;
+    results.clear();
+    JTabbedPane tabs = frame.getCorpusTabs();
+    pending = 0;
+    total = 0;
+    for (int i = 0; i < tabs.getTabCount(); i++) {
+      final CorpusPane pane = (CorpusPane)tabs.getComponentAt(i);
+      if (pane.getCorpus().size() == 0) continue;	// e.g. Scratch
+      final Group group = new Group(pane, tabs.getTitleAt(i));
+      pending++;
+      new SwingWorker<Vector<Hit>, Object>() {
+	protected Vector<Hit> doInBackground() {
+	  long start = System.currentTimeMillis();
+	  Corpus corpus = pane.getCorpus();
+	  Vector<Hit> hits = new Vector<Hit>();
+	  if (query != null) {
+	    for (TreeQuery.Match match : query.run(corpus))
+	      hits.add(new Hit(group, match.sentence, match.token));
+	  } else {
+	    for (int sentence : SentenceSearcher.searchAll(corpus, text))
+	      hits.add(new Hit(group, sentence, -1));
+	  }
+	  group.time = System.currentTimeMillis() - start;
+	  return hits;
+	}
+
+	protected void done() {
+	  if (search != searches) return;	// superseded
+	  pending--;
+	  try {
+	    Vector<Hit> hits = get();
+	    group.count = hits.size();
+	    total += hits.size();
+	    results.add(group);
+	    results.addAll(hits);
+	  } catch (Exception e) {
+	    statusLabel.setText(group.title + " failed: " + e.getCause());
+	    return;
+	  }
+	  status();
+	}
+      }.execute();
+    }
+    status();
+  }
+
+  private void status() {
+    statusLabel.setText(total + " results"
+	+ (pending > 0 ? ", searching " + pending + " tabs..." : ""));
+  }
+
+  private DGA			   frame;
+  private JPanel		   searchPane	= null;
+  private JTextField		   queryField	= null;
+  private JCheckBox		   treeBox	= null;
+  private JButton		   findButton	= null;
+  private JList<Object>		   resultList	= null;
+  private JLabel		   statusLabel	= null;
+  private final ArrayListModel<Object> results = new ArrayListModel<Object>();
+  private int			   searches	= 0;	///< searches started
+  private int			   pending	= 0;	///< tabs being searched
+  private int			   total	= 0;	///< results found
+}
@@ -18,15 +18,6 @@ import org.w3c.dom.Node;
 class SentenceTree {
   SentenceTree() {}
   
-  SentenceTree(Vector<Integer> parentV, Vector<String> depV) {
-    int n = parentV.size();
-    parents = new int[n];
-    deps = new String[n];
-    for (int i = 0; i < n; i++) {
-      parents[i] = parentV.get(i);
-      deps[i] = depV.get(i);
-    }
-  }
   /**
    * offsets of each term to its head word: 0 means no link, Integer.MAX_VALUE
    * means root link
@@ -53,9 +44,23 @@ public class Sentence extends SentenceTree {
   public String[] morphos;		///< corresponding morphological features
   public String[] pheads;		///< corresponding projective heads
   public String[] pdeprels;		///< corresponding projective deprel
-  public Vector<Node> extras;	///< extra XML elements
+  public Vector<Extra> extras;	///< extra XML elements
   public Node context = null;	///< the context, e.g. containing document
-  
+  public Metadata meta = null;	///< comment lines (CoNLL-U)
+  public MultiWords multiwords = null; ///< multiword tokens (CoNLL-U)
+
+  /**
+   * Byte offset of the sentence in the file it was read from, or -1 if it
+   * was not read from a CoNLL file.
+   */
+  long offset = -1;
+  int  span;			///< number of bytes of the sentence in its file
+
+  /**
+   * Empty sentence, whose arrays are filled by a reader.
+   */
+  Sentence() {}
+
   /**
    * Build a tagged sentence.
    * @param s the text of the sentence
@@ -73,52 +78,14 @@ public class Sentence extends SentenceTree {
     Service service = new Service(tagger, authProvider, authToken, email);
     Vector<String> tagged = PosTags(s, corpus, service);
     int n = tagged.size() - 1; // drop sentence separator
-    forms = new String[n];
-    lemmas = new String[n];
-    tags = new String[n];
-    morphos = new String[n];
-    parents = new int[n];
-    deps = new String[n];
-    for (int i = 0; i < n; i++) {
-      String token = tagged.elementAt(i);
-      String[] parts = token.split("\t");
-      forms[i] = parts[0];
-      lemmas[i] = parts.length > 1 ? parts[1] : "";
-      tags[i] = parts.length > 2 ? parts[2] : "_";
-      morphos[i] = parts.length > 3 ? parts[3] : "";
-      parents[i] = 0;
-      deps[i] = "";
-    }
-  }
-  
-  Sentence(String sid, Vector<String> wordV, Vector<String> lemmaV,
-      Vector<String> ctagV, Vector<String> tagV, Vector<String> featsV,
-      Vector<Integer> parentV, Vector<String> depV,
-      Vector<String> pheadV, Vector<String> pdeprelV,
-      Vector<Node> extras, Node context) {
-    super(parentV, depV);
-    this.id = sid;
-    this.extras = extras;
-    this.context = context;
-    int n = wordV.size();
-    forms = new String[n];
-    lemmas = new String[n];
-    coarseTags = new String[n];
-    tags = new String[n];
-    morphos = new String[n];
-    pheads = new String[n];
-    pdeprels = new String[n];
+    SentenceBuilder tokens = new SentenceBuilder(Math.max(n, 1));
     for (int i = 0; i < n; i++) {
-      forms[i] = wordV.get(i);
-      lemmas[i] = lemmaV.get(i);
-      coarseTags[i] = ctagV.get(i);
-      tags[i] = tagV.get(i);
-      morphos[i] = featsV.get(i);
-      parents[i] = parentV.get(i);
-      deps[i] = depV.get(i);
-      pheads[i] = (pheadV == null) ? "" : pheadV.get(i);
-      pdeprels[i] = (pdeprelV == null) ? "" : pdeprelV.get(i);
+      String[] parts = tagged.elementAt(i).split("\t");
+      tokens.add(parts[0], parts.length > 1 ? parts[1] : "",
+	  "", parts.length > 2 ? parts[2] : "_",
+	  parts.length > 3 ? parts[3] : "", 0, "", "", "");
     }
+    tokens.fill(this);
   }
   
   public int length() {
@@ -126,25 +93,39 @@ public class Sentence extends SentenceTree {
   }
   
   public String toString() {
+    StringBuilder s = new StringBuilder();
+    try {
+      writeXml(s);
+    } catch (IOException e) {
+      // cannot happen on a StringBuilder
+    }
+    return s.toString();
+  }
+
+  /**
+   * Serialize to DGA XML format, writing directly to out.
+   */
+  public void writeXml(Appendable out) throws IOException {
     String indent0 = "\n";
     String indent1 = "\n  ";
     //String indent2 = "\n    ";
-    StringBuffer s = new StringBuffer("<s");
+    out.append("<s");
     if (id != null)
-      s.append(" id=\"" + id + "\"");
-    s.append(">");
+      out.append(" id=\"").append(id).append('"');
+    out.append('>');
     for (int i = 0; i < forms.length; i++) {
-      s.append(indent0 + "<tok id=\"" + (i + 1) + "\">");
+      out.append(indent0).append("<tok id=\"").append(Integer.toString(i + 1))
+	  .append("\">");
       if (forms[i] != null)
-	s.append(indent1 + "<orth>" + HtmlEncoder.encode(forms[i]) + "</orth>");
+	element(out, indent1, "orth", forms[i]);
       if (lemmas[i] != null && lemmas[i].length() > 0)
-	s.append(indent1 + "<lemma>" + HtmlEncoder.encode(lemmas[i]) + "</lemma>");
+	element(out, indent1, "lemma", lemmas[i]);
       if (coarseTags[i] != null && coarseTags[i].length() > 0)
-	s.append(indent1 + "<cpos>" + HtmlEncoder.encode(coarseTags[i]) + "</cpos>");
+	element(out, indent1, "cpos", coarseTags[i]);
       if (tags[i] != null && tags[i].length() > 0)
-	s.append(indent1 + "<pos>" + HtmlEncoder.encode(tags[i]) + "</pos>");
+	element(out, indent1, "pos", tags[i]);
       if (morphos[i] != null && !morphos[i].isEmpty())
-	s.append(indent1 + "<morph>" + HtmlEncoder.encode(morphos[i]) + "</morph>");
+	element(out, indent1, "morph", morphos[i]);
       if (parents[i] != 0) {
 	int head = parents[i] == Integer.MAX_VALUE ? 0 : parents[i] + i + 1;
 	/* Old version
@@ -153,66 +134,202 @@ public class Sentence extends SentenceTree {
 	 s.append(indent2 + "<reltype>" + HtmlEncoder.encode(deps[i]) + "</reltype>");
 	 s.append(indent1 + "</syn>");
 	 */
-	s.append(indent1 + "<dep head=\"" + head + '"');
-	if (deps[i] != null)
-	  s.append(" type=\"" + HtmlEncoder.encode(deps[i]) + '"');
-	s.append(" />");
-      }
-      if (extras != null) {
-	Node node = extras.get(i);
-	if (node != null) {
-	  s.append(XmlPrinter.NodeToString(node, indent1));
+	out.append(indent1).append("<dep head=\"").append(Integer.toString(head))
+	    .append('"');
+	if (deps[i] != null) {
+	  out.append(" type=\"");
+	  HtmlEncoder.encode(deps[i], out);
+	  out.append('"');
 	}
+	out.append(" />");
       }
-      s.append(indent0 + "</tok>");
+      if (extras != null && extras.get(i) != null)
+	extras.get(i).write(out);
+      out.append(indent0).append("</tok>");
     }
-    s.append(indent0 + "</s>");
-    return s.toString();
+    out.append(indent0).append("</s>");
   }
-  
+
+  /**
+   * Write element tag with escaped value to out.
+   */
+  private static void element(Appendable out, String indent, String tag,
+      String value) throws IOException {
+    out.append(indent).append('<').append(tag).append('>');
+    HtmlEncoder.encode(value, out);
+    out.append("</").append(tag).append('>');
+  }
+
   /**
    * Serialize to CoNLL (or CoNLL-U) tab separated format
    *	id	form	lemma	cpostag	postag	feats	head	phead	pdeprel	
    * @return a line terminated string.
    */
   public String toTab() {
-    StringBuffer s = new StringBuffer();
-    if (context != null)
-      s.append(context.getAttributes().getNamedItem("meta").getTextContent());
-    int mws = 0, mwe = 0;
-    String mwv = "";
-    int mwi = 0;
+    StringBuilder s = new StringBuilder();
+    try {
+      writeTab(s);
+    } catch (IOException e) {
+      // cannot happen on a StringBuilder
+    }
+    return s.toString();
+  }
+
+  /**
+   * Serialize to CoNLL (or CoNLL-U) tab separated format, writing directly
+   * to out.
+   */
+  public void writeTab(Appendable out) throws IOException {
+    if (meta != null) meta.write(out);
+    int mw = 0;			// next multiword token
     for (int i = 0; i < forms.length; i++) {
-      // check for multiword
-      if (mws < i+1 && mwi < extras.size()) {
-	  Node node = extras.get(mwi);
-	  mws = Integer.parseInt(node.getAttributes().getNamedItem("start").getNodeValue());
-	  mwe = Integer.parseInt(node.getAttributes().getNamedItem("end").getNodeValue());
-	  mwv = node.getAttributes().getNamedItem("value").getNodeValue();
-	  mwi += 1;
-      }
-      if (mws == i+1)	// numbering from 1
-	s.append(String.format("%d-%d\t%s\n", mws, mwe, mwv));
-      s.append((i + 1) + "\t");
-      s.append(forms[i] == null || forms[i].isEmpty() ? "_" : forms[i]); s.append("\t");
-      s.append(lemmas[i] == null || lemmas[i].isEmpty() ? "_" : lemmas[i]); s.append("\t");
-      s.append(coarseTags[i] == null || coarseTags[i].isEmpty() ? "_" : coarseTags[i]); s.append("\t");
-      s.append(tags[i] == null || tags[i].isEmpty() ? "_" : tags[i]); s.append("\t");
-      s.append(morphos[i] == null || morphos[i].isEmpty() ? "_" : morphos[i]); s.append("\t");
+      if (multiwords != null && mw < multiwords.size()
+	  && multiwords.first(mw) == i)
+	multiwords.write(out, mw++);
+      out.append(Integer.toString(i + 1)).append('\t');
+      field(out, forms[i]).append('\t');
+      field(out, lemmas[i]).append('\t');
+      field(out, coarseTags[i]).append('\t');
+      field(out, tags[i]).append('\t');
+      field(out, morphos[i]).append('\t');
       int head = (parents[i] == Integer.MAX_VALUE) ? 0 : parents[i] + i + 1;
-      s.append(head); s.append("\t");
-      s.append(deps[i] == null || deps[i].isEmpty() ? "_" : deps[i]); s.append("\t");
-      s.append(pheads[i] == null || pheads[i].isEmpty() ? "_" : pheads[i]); s.append("\t");
-      s.append(pdeprels[i] == null || pdeprels[i].isEmpty() ? "_" : pdeprels[i]); s.append("\n");
+      out.append(Integer.toString(head)).append('\t');
+      field(out, deps[i]).append('\t');
+      field(out, pheads[i]).append('\t');
+      field(out, pdeprels[i]).append('\n');
     }
-    s.append("\n");
-    return s.toString();
+    out.append('\n');
+  }
+
+  /**
+   * Write value to out, or "_" if missing.
+   */
+  private static Appendable field(Appendable out, String value)
+      throws IOException {
+    return out.append(value == null || value.isEmpty() ? "_" : value);
   }
   
+  /**
+   * @return the dependency tree view of the sentence, built on first use
+   *	     and after each change to the heads.
+   */
+  public DependencyTree tree() {
+    if (tree == null || tree.length() != length())
+      tree = new DependencyTree(parents);
+    return tree;
+  }
+
+  /**
+   * Set the head of token i to parent, an offset as in parents.
+   */
+  public void setParent(int i, int parent) {
+    parents[i] = parent;
+    tree = null;
+  }
+
+  /**
+   * Discard the tree view, after changing parents directly.
+   */
+  public void invalidate() {
+    tree = null;
+  }
+
+  private DependencyTree tree;
+
+  /**
+   * @return the enhanced dependency graph in the DEPS column (pheads) of a
+   *	     CoNLL-U sentence, or null if there is none. The graph is parsed
+   *	     on first use and again only if the column changes.
+   * @param vocabulary of the corpus, where labels are interned.
+   */
+  public EnhancedGraph enhanced(Vocabulary vocabulary) {
+    if (pheads == null) return null;
+    if (enhancedColumn == null || !Arrays.equals(pheads, enhancedColumn)) {
+      enhancedColumn = pheads.clone();
+      enhanced = EnhancedGraph.parse(pheads, vocabulary);
+    }
+    return enhanced;
+  }
+
+  private EnhancedGraph enhanced;
+  private String[]	enhancedColumn;	///< pheads from which enhanced was parsed
+
   private boolean changed = false;
   public void changed(boolean v) { changed = v; }
   public boolean changed() { return changed; }
-  
+
+  /**
+   * @return a copy of this sentence, which can be saved while this one is
+   *	     being edited. Extra nodes, context, metadata and
+   *	     multiwords are shared.
+   */
+  Sentence copy() {
+    Sentence copy = new Sentence();
+    copy.id = id;
+    copy.forms = clone(forms);
+    copy.lemmas = clone(lemmas);
+    copy.coarseTags = clone(coarseTags);
+    copy.tags = clone(tags);
+    copy.morphos = clone(morphos);
+    copy.pheads = clone(pheads);
+    copy.pdeprels = clone(pdeprels);
+    copy.parents = (parents == null) ? null : parents.clone();
+    copy.deps = clone(deps);
+    copy.extras = (extras == null) ? null : new Vector<Extra>(extras);
+    copy.context = context;
+    copy.meta = meta;
+    copy.multiwords = multiwords;
+    copy.offset = offset;
+    copy.span = span;
+    copy.changed = changed;
+    return copy;
+  }
+
+  private static String[] clone(String[] column) {
+    return (column == null) ? null : column.clone();
+  }
+
+  /**
+   * Replace the values of this sentence with their shared instances in
+   * vocabulary, so that they can be compared by reference.
+   */
+  void intern(Vocabulary vocabulary) {
+    intern(forms, vocabulary);
+    intern(lemmas, vocabulary);
+    intern(coarseTags, vocabulary);
+    intern(tags, vocabulary);
+    intern(morphos, vocabulary);
+    intern(pheads, vocabulary);
+    intern(pdeprels, vocabulary);
+    intern(deps, vocabulary);
+  }
+
+  private static void intern(String[] column, Vocabulary vocabulary) {
+    if (column == null) return;
+    for (int i = 0; i < column.length; i++)
+      column[i] = vocabulary.intern(column[i]);
+  }
+
+  /**
+   * @return whether this sentence has the same annotations as other.
+   */
+  boolean sameAs(Sentence other) {
+    return Objects.equals(id, other.id)
+	&& Arrays.equals(forms, other.forms)
+	&& Arrays.equals(lemmas, other.lemmas)
+	&& Arrays.equals(coarseTags, other.coarseTags)
+	&& Arrays.equals(tags, other.tags)
+	&& Arrays.equals(morphos, other.morphos)
+	&& Arrays.equals(pheads, other.pheads)
+	&& Arrays.equals(pdeprels, other.pdeprels)
+	&& Arrays.equals(parents, other.parents)
+	&& Arrays.equals(deps, other.deps)
+	&& Objects.equals(extras, other.extras)
+	&& context == other.context
+	&& meta == other.meta
+	&& multiwords == other.multiwords;
+  }
+
   /**
    * Invoke POS tagger service to tag sentence
    * 
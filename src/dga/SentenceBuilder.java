@@ -0,0 +1,169 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * Accumulates the tokens of a sentence while it is being read, in arrays
+ * that grow as needed and are reused for the next sentence.
+ * Heads are kept as int offsets, as in SentenceTree.parents, without
+ * boxing, and no locks are taken, unlike with Vectors: a builder must be
+ * used by a single reader.
+ * Finished arrays are trimmed to the length of the sentence with a single
+ * bulk copy each, and handed to the Sentence.
+ *
+ * @author Attardi
+ *
+ */
+class SentenceBuilder {
+
+  SentenceBuilder() {
+    this(32);
+  }
+
+  SentenceBuilder(int capacity) {
+    forms = new String[capacity];
+    lemmas = new String[capacity];
+    coarseTags = new String[capacity];
+    tags = new String[capacity];
+    morphos = new String[capacity];
+    parents = new int[capacity];
+    deps = new String[capacity];
+    pheads = new String[capacity];
+    pdeprels = new String[capacity];
+    extras = new Extra[capacity];
+  }
+
+  /**
+   * Add a token.
+   *
+   * @param parent offset to the head, as in SentenceTree.parents.
+   */
+  void add(String form, String lemma, String coarseTag, String tag,
+      String morpho, int parent, String dep, String phead, String pdeprel) {
+    if (size == forms.length) grow();
+    forms[size] = form;
+    lemmas[size] = lemma;
+    coarseTags[size] = coarseTag;
+    tags[size] = tag;
+    morphos[size] = morpho;
+    parents[size] = parent;
+    deps[size] = dep;
+    pheads[size] = phead;
+    pdeprels[size] = pdeprel;
+    extras[size] = null;
+    size++;
+  }
+
+  private void grow() {
+    int capacity = 2 * forms.length;
+    forms = Arrays.copyOf(forms, capacity);
+    lemmas = Arrays.copyOf(lemmas, capacity);
+    coarseTags = Arrays.copyOf(coarseTags, capacity);
+    tags = Arrays.copyOf(tags, capacity);
+    morphos = Arrays.copyOf(morphos, capacity);
+    parents = Arrays.copyOf(parents, capacity);
+    deps = Arrays.copyOf(deps, capacity);
+    pheads = Arrays.copyOf(pheads, capacity);
+    pdeprels = Arrays.copyOf(pdeprels, capacity);
+    extras = Arrays.copyOf(extras, capacity);
+  }
+
+  /**
+   * @return the number of tokens added.
+   */
+  int size() {
+    return size;
+  }
+
+  /// Setters for fields of the last token added, for readers that find
+  /// them in any order.
+
+  void setForm(String form) {
+    forms[size - 1] = form;
+  }
+
+  void setLemma(String lemma) {
+    lemmas[size - 1] = lemma;
+  }
+
+  void setCoarseTag(String coarseTag) {
+    coarseTags[size - 1] = coarseTag;
+  }
+
+  void setTag(String tag) {
+    tags[size - 1] = tag;
+  }
+
+  void setMorpho(String morpho) {
+    morphos[size - 1] = morpho;
+  }
+
+  void setParent(int parent) {
+    parents[size - 1] = parent;
+  }
+
+  void setDep(String dep) {
+    deps[size - 1] = dep;
+  }
+
+  void setExtra(Extra extra) {
+    extras[size - 1] = extra;
+    hasExtras = true;
+  }
+
+  /**
+   * @return a sentence with the tokens added, and start a new one.
+   */
+  Sentence build(String id) {
+    Sentence sentence = new Sentence();
+    sentence.id = id;
+    fill(sentence);
+    return sentence;
+  }
+
+  /**
+   * Set the tokens of sentence to those added, and start a new one.
+   */
+  void fill(Sentence sentence) {
+    sentence.forms = Arrays.copyOf(forms, size);
+    sentence.lemmas = Arrays.copyOf(lemmas, size);
+    sentence.coarseTags = Arrays.copyOf(coarseTags, size);
+    sentence.tags = Arrays.copyOf(tags, size);
+    sentence.morphos = Arrays.copyOf(morphos, size);
+    sentence.parents = Arrays.copyOf(parents, size);
+    sentence.deps = Arrays.copyOf(deps, size);
+    sentence.pheads = Arrays.copyOf(pheads, size);
+    sentence.pdeprels = Arrays.copyOf(pdeprels, size);
+    if (hasExtras)
+      sentence.extras = new Vector<Extra>(Arrays.asList(Arrays.copyOf(extras,
+	  size)));
+    clear();
+  }
+
+  /**
+   * Discard the tokens added.
+   */
+  void clear() {
+    // drop references to values of the previous sentence
+    Arrays.fill(extras, 0, size, null);
+    size = 0;
+    hasExtras = false;
+  }
+
+  private String[] forms;
+  private String[] lemmas;
+  private String[] coarseTags;
+  private String[] tags;
+  private String[] morphos;
+  private int[]	   parents;
+  private String[] deps;
+  private String[] pheads;
+  private String[] pdeprels;
+  private Extra[]  extras;
+  private boolean  hasExtras = false;
+  private int	   size = 0;
+}
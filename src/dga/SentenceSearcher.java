@@ -0,0 +1,166 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *	Searches for a word in the sentences of a corpus, one sentence at a
+ *	time, without rendering the corpus as text.
+ *	A single word is looked up in the TokenIndex of the corpus, among
+ *	forms and lemmas, or matched against whole forms while the index is
+ *	being built; a regular expression is matched against the text of
+ *	sentences, scanning them in parallel.
+ */
+class SentenceSearcher {
+  public SentenceSearcher(Corpus corpus) {
+    this.corpus = corpus;
+  }
+  int lastIndex = -1;
+  /**
+   * Prepare for new search, starting after sentence index.
+   */
+  public void reset(int index) {
+    lastIndex = index;
+  }
+
+  /**
+   * Queries without spaces or regular expression operators, answered by
+   * the index.
+   */
+  static final Pattern reWord = Pattern.compile("[^\\s\\\\^$.|?*+()\\[\\]{}]+");
+
+  /**
+   * Sentences scanned by each task of a parallel scan.
+   */
+  static final int chunk = 1024;
+
+  //	Search for a word and return the index of the next (or previous)
+  //	sentence containing it, or -1 if none.
+  public int search(String word, boolean forward) {
+    if (word == null || word.equals("")) {
+      return -1;
+    }
+    int found;
+    TokenIndex index = reWord.matcher(word).matches()
+	? corpus.builtTokenIndex() : null;
+    if (index != null) {
+      found = forward ? index.next(word, lastIndex)
+	  : index.previous(word, lastIndex < 0 ? corpus.size() : lastIndex);
+    } else {
+      Pattern pattern = reWord.matcher(word).matches()
+	  ? Pattern.compile("(?<!\\S)" + Pattern.quote(word) + "(?!\\S)",
+	      Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)
+	  : Pattern.compile(word, Pattern.CASE_INSENSITIVE);
+      found = forward ? scan(corpus, pattern, lastIndex + 1, true)
+	  : scan(corpus, pattern, (lastIndex < 0 ? corpus.size() : lastIndex)
+	      - 1, false);
+    }
+    if (found >= 0) lastIndex = found;
+    return found;
+  }
+
+  /**
+   * Scan the sentences of corpus in parallel, starting from sentence
+   * start, in windows of a chunk for each thread of the pool, so that the
+   * scan stops soon after the nearest match.
+   *
+   * @return the first sentence, forward or backward from start, whose text
+   *	     matches pattern, or -1 if none.
+   */
+  static int scan(final Corpus corpus, final Pattern pattern, int start,
+      final boolean forward) {
+    int n = corpus.size();
+    int tasks = ParallelLoader.pool.getParallelism();
+    while (forward ? start < n : start >= 0) {
+      Vector<Callable<Integer>> window = new Vector<Callable<Integer>>();
+      for (int k = 0; k < tasks; k++) {
+	final int from = forward ? Math.min(n, start + k * chunk)
+	    : Math.max(-1, start - k * chunk);
+	final int to = forward ? Math.min(n, from + chunk)
+	    : Math.max(-1, from - chunk);
+	if (from == to) break;
+	window.add(new Callable<Integer>() {
+	  public Integer call() {
+	    Matcher matcher = pattern.matcher("");
+	    int step = forward ? 1 : -1;
+	    for (int i = from; i != to; i += step)
+	      if (matcher.reset(CorpusPane.text(corpus.getSentence(i))).find())
+		return i;
+	    return -1;
+	  }
+	});
+      }
+      try {
+	// windows are in order of distance from start
+	for (Future<Integer> result : ParallelLoader.pool.invokeAll(window))
+	  if (result.get() >= 0) return result.get();
+      } catch (InterruptedException e) {
+	Thread.currentThread().interrupt();
+	return -1;
+      } catch (ExecutionException e) {
+	throw new IllegalStateException(e.getCause());
+      }
+      start += (forward ? tasks : -tasks) * chunk;
+    }
+    return -1;
+  }
+
+  /**
+   * Find all the sentences of corpus matching query, a word answered by
+   * the index or a regular expression scanned in parallel.
+   *
+   * @return the sentences matching, in order.
+   */
+  static int[] searchAll(final Corpus corpus, String query) {
+    if (reWord.matcher(query).matches())
+      return corpus.tokenIndex().sentences(TokenIndex.words, query);
+    final Pattern pattern = Pattern.compile(query, Pattern.CASE_INSENSITIVE);
+    int n = corpus.size();
+    Vector<Callable<int[]>> tasks = new Vector<Callable<int[]>>();
+    for (int start = 0; start < n; start += chunk) {
+      final int from = start;
+      final int to = Math.min(n, start + chunk);
+      tasks.add(new Callable<int[]>() {
+	public int[] call() {
+	  Matcher matcher = pattern.matcher("");
+	  int[] found = new int[to - from];
+	  int count = 0;
+	  for (int i = from; i < to; i++)
+	    if (matcher.reset(CorpusPane.text(corpus.getSentence(i))).find())
+	      found[count++] = i;
+	  return Arrays.copyOf(found, count);
+	}
+      });
+    }
+    Vector<int[]> parts = new Vector<int[]>();
+    int total = 0;
+    try {
+      for (Future<int[]> result : ParallelLoader.pool.invokeAll(tasks)) {
+	parts.add(result.get());
+	total += result.get().length;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    // join in order
+    int[] found = new int[total];
+    int count = 0;
+    for (int[] part : parts) {
+      System.arraycopy(part, 0, found, count, part.length);
+      count += part.length;
+    }
+    return found;
+  }
+
+  protected Corpus corpus;
+}
@@ -15,6 +15,9 @@ import javax.swing.undo.UndoManager;
 public class SentenceView {
   
   Sentence sentence;
+  Corpus corpus;		///< corpus containing sentence, if any
+  int index = -1;		///< index of sentence in corpus file, if any
+  EditJournal journal;		///< where edits to sentence are recorded
   protected UndoManager undoManager;
   protected AffineTransform transform;
   /**
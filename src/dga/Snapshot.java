@@ -0,0 +1,78 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The state of a corpus at a given time, to be saved while the corpus is
+ * still being edited.
+ * The snapshot is copy on write: only sentences changed since the last save
+ * are copied, since those are the ones the user is editing, while the others
+ * are shared with the corpus.
+ * A snapshot is taken on the Event Dispatch Thread, where sentences are
+ * edited, and can then be saved from any thread.
+ *
+ * @author Attardi
+ *
+ */
+class Snapshot {
+
+  /**
+   * Snapshot sharing all sentences of corpus.
+   */
+  Snapshot(Corpus corpus) {
+    this.corpus = corpus;
+    size = corpus.size();
+    journaled = (corpus.journal == null) ? 0 : corpus.journal.position();
+  }
+
+  /**
+   * @return the i-th sentence at the time of the snapshot.
+   */
+  Sentence get(int i) {
+    Sentence sentence = copies.get(i);
+    return (sentence != null) ? sentence : corpus.getSentence(i);
+  }
+
+  /**
+   * @return the number of sentences.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return whether the i-th sentence had been changed since the last save.
+   */
+  boolean changed(int i) {
+    return copies.containsKey(i);
+  }
+
+  /**
+   * Record a copy of the i-th sentence.
+   */
+  void copy(int i, Sentence sentence) {
+    copies.put(i, sentence.copy());
+  }
+
+  final Corpus	corpus;
+  final int	size;
+  final long	journaled;	///< position in journal of corpus
+
+  /**
+   * Copies of the sentences changed since last save, by index.
+   */
+  final Map<Integer, Sentence> copies = new HashMap<Integer, Sentence>();
+
+  /// Results of saving, applied to the corpus by Corpus.saved()
+
+  File		file;		///< where the snapshot was saved
+  long[]	offsets;	///< offset of each sentence, if saved incrementally
+  int[]		spans;		///< length of each sentence, if saved incrementally
+  long		length;		///< length of file after an incremental save
+  long		modified;	///< time of an incremental save
+}
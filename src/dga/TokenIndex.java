@@ -0,0 +1,243 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Vector;
+
+/**
+ * Inverted index of the tokens of a corpus, for finding the sentences
+ * containing a word, a POS tag or a dependency label without scanning
+ * them.
+ * Each term, i.e. a value of a field, gets a code from a Vocabulary and a
+ * posting list of the positions where it occurs, as (sentence, token)
+ * pairs packed in a long, in increasing order: the next or previous
+ * sentence containing a term is found by binary search.
+ * The index listens to its corpus, reindexing the sentences edited and
+ * indexing those added.
+ *
+ * @author Attardi
+ *
+ */
+public class TokenIndex implements CorpusChangeListener {
+
+  /// Fields indexed, each with its own terms.
+  static final int words = 0;	///< forms and lemmas, ignoring case
+  static final int tags	 = 1;	///< POS tags, fine and coarse
+  static final int deps	 = 2;	///< dependency labels
+
+  /**
+   * Prefix of the terms of each field in terms.
+   */
+  private static final String[] prefixes = { "w", "t", "d" };
+
+  /**
+   * Values of each token indexed: form, lemma, tag, coarse tag and
+   * dependency label.
+   */
+  private static final int values = 5;
+
+  TokenIndex(Corpus corpus) {
+    this.corpus = corpus;
+    for (int f = 0; f < prefixes.length; f++)
+      codes.add(new IdentityHashMap<String, Integer>());
+    // listen first, so that no sentence added while loading is missed:
+    // those indexed twice are added once to postings
+    synchronized (this) {
+      corpus.addCorpusChangeListener(this);
+      int n = corpus.size();
+      sentenceTerms = new int[Math.max(n, 16)][];
+      for (int i = 0; i < n; i++)
+	index(i);
+    }
+  }
+
+  /**
+   * @return the term for value of field.
+   */
+  static String term(int field, String value) {
+    return prefixes[field]
+	+ ((field == words) ? value.toLowerCase(Locale.ROOT) : value);
+  }
+
+  /**
+   * Add the positions of the terms of sentence i, recording them in
+   * sentenceTerms: the codes of the values of each token, in blocks of
+   * the length of the sentence, or -1 for a missing value or one with the
+   * same term as the previous one.
+   */
+  private void index(int i) {
+    Sentence sentence = corpus.getSentence(i);
+    int n = sentence.length();
+    int[] indexed = new int[values * n];
+    for (int t = 0; t < n; t++) {
+      indexed[t] = add(words, sentence.forms[t], i, t);
+      indexed[n + t] = add(words, sentence.lemmas[t], i, t);
+      indexed[2 * n + t] = add(tags, sentence.tags[t], i, t);
+      indexed[3 * n + t] = add(tags, sentence.coarseTags[t], i, t);
+      indexed[4 * n + t] = add(deps, sentence.deps[t], i, t);
+      for (int v = 1; v < values; v++)
+	if (indexed[v * n + t] == indexed[(v - 1) * n + t])
+	  indexed[v * n + t] = -1;
+    }
+    if (i >= sentenceTerms.length)
+      sentenceTerms = Arrays.copyOf(sentenceTerms, Math.max(i + 1,
+	  2 * sentenceTerms.length));
+    sentenceTerms[i] = indexed;
+  }
+
+  /**
+   * Add the position of token t of sentence i to the postings of value of
+   * field, unless already present.
+   *
+   * @return the code of the term of value, or -1 if value is missing.
+   */
+  private int add(int field, String value, int i, int t) {
+    if (value == null || value.equals("_")) return -1;
+    Integer known = codes.get(field).get(value);
+    int code;
+    if (known == null) {
+      code = terms.code(term(field, value));
+      codes.get(field).put(value, code);
+    } else
+      code = known;
+    if (code >= postings.length) {
+      int capacity = Math.max(code + 1, 2 * postings.length);
+      postings = Arrays.copyOf(postings, capacity);
+      counts = Arrays.copyOf(counts, capacity);
+    }
+    long position = ((long)i << 32) | t;
+    long[] list = postings[code];
+    int count = counts[code];
+    int k = find(list, count, position);
+    if (k < count && list[k] == position) return code;
+    if (list == null)
+      list = postings[code] = new long[4];
+    else if (count == list.length)
+      list = postings[code] = Arrays.copyOf(list, 2 * count);
+    System.arraycopy(list, k, list, k + 1, count - k);
+    list[k] = position;
+    counts[code]++;
+    return code;
+  }
+
+  /**
+   * Remove from the postings of its terms the positions of sentence i.
+   */
+  private void remove(int i) {
+    if (i >= sentenceTerms.length || sentenceTerms[i] == null) return;
+    for (int code : sentenceTerms[i]) {
+      if (code < 0) continue;
+      long[] list = postings[code];
+      int count = counts[code];
+      int from = find(list, count, (long)i << 32);
+      int to = find(list, count, (long)(i + 1) << 32);
+      System.arraycopy(list, to, list, from, count - to);
+      counts[code] -= to - from;
+    }
+    sentenceTerms[i] = null;
+  }
+
+  /**
+   * @return the position of the first element of list[0, count) not less
+   *	     than position.
+   */
+  private static int find(long[] list, int count, long position) {
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (list[mid] < position)
+	low = mid + 1;
+      else
+	high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * @return the first sentence after sentence from containing word as form
+   *	     or lemma, ignoring case, or -1 if none.
+   */
+  public int next(String word, int from) {
+    return next(words, word, from);
+  }
+
+  /**
+   * @return the last sentence before sentence from containing word as form
+   *	     or lemma, ignoring case, or -1 if none.
+   */
+  public int previous(String word, int from) {
+    return previous(words, word, from);
+  }
+
+  /**
+   * @return the first sentence after sentence from containing value of
+   *	     field, or -1 if none.
+   */
+  public synchronized int next(int field, String value, int from) {
+    int code = terms.lookup(term(field, value));
+    if (code < 0 || code >= postings.length) return -1;
+    int k = find(postings[code], counts[code], (long)(from + 1) << 32);
+    return (k < counts[code]) ? (int)(postings[code][k] >>> 32) : -1;
+  }
+
+  /**
+   * @return the last sentence before sentence from containing value of
+   *	     field, or -1 if none.
+   */
+  public synchronized int previous(int field, String value, int from) {
+    int code = terms.lookup(term(field, value));
+    if (code < 0 || code >= postings.length || from <= 0) return -1;
+    int k = find(postings[code], counts[code], (long)from << 32);
+    return (k > 0) ? (int)(postings[code][k - 1] >>> 32) : -1;
+  }
+
+  /**
+   * @return the sentences containing value of field, in order.
+   */
+  public synchronized int[] sentences(int field, String value) {
+    int code = terms.lookup(term(field, value));
+    if (code < 0 || code >= postings.length) return new int[0];
+    long[] list = postings[code];
+    int[] sentences = new int[counts[code]];
+    int count = 0;
+    for (int k = 0; k < counts[code]; k++) {
+      int s = (int)(list[k] >>> 32);
+      if (count == 0 || sentences[count - 1] != s) sentences[count++] = s;
+    }
+    return Arrays.copyOf(sentences, count);
+  }
+
+  /**
+   * @return the number of tokens with value of field.
+   */
+  public synchronized int count(int field, String value) {
+    int code = terms.lookup(term(field, value));
+    return (code < 0 || code >= postings.length) ? 0 : counts[code];
+  }
+
+  public synchronized void sentenceChanged(Corpus corpus, int index) {
+    remove(index);
+    index(index);
+  }
+
+  public synchronized void sentencesAdded(Corpus corpus, int first, int last) {
+    for (int i = first; i <= last; i++)
+      index(i);
+  }
+
+  private final Corpus	   corpus;
+  private final Vocabulary terms    = new Vocabulary();
+  /// codes of the values of each field, by reference to their instances
+  /// shared through the vocabulary of the corpus: a value that is not
+  /// shared just gets its own entry, with the same code
+  private final Vector<IdentityHashMap<String, Integer>> codes
+      = new Vector<IdentityHashMap<String, Integer>>();
+  private long[][]	   postings = new long[1024][];	///< positions of each term
+  private int[]		   counts   = new int[1024];	///< length of each list
+  private int[][]	   sentenceTerms;	///< term codes of each sentence
+}
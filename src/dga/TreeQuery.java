@@ -0,0 +1,412 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A query on the dependency trees of a corpus, matching tokens by their
+ * values and by those of their dependents.
+ * A query is a node pattern, with syntax:
+ *	node  := test [ '(' child { ',' child } ')' ]
+ *	test  := term { '&' term }
+ *	term  := [ key '=' ] value { '|' value }
+ *	child := [ '<' | '>' ] [ '!' ] label node
+ *	label := value { '|' value }
+ * where key is one of form, lemma, pos, cpos or dep, and a term without a
+ * key matches either POS tag. The value _ as test, or * as label, matches
+ * anything.
+ * A child matches a dependent of the token with one of the labels that
+ * precedes ('<') or follows ('>') it, if specified, while '!' requires
+ * that no dependent matches. Forms and lemmas are compared ignoring case,
+ * tags and labels by reference to their instances in the vocabulary of
+ * the corpus. A backslash quotes the next character.
+ * For example:
+ *	VERB (nsubj PRON, > obj _)
+ * finds verbs with a pronoun as subject and an object on their right.
+ * Candidate sentences are those containing all the values required by the
+ * query, found from the TokenIndex of the corpus, and are matched in
+ * parallel.
+ *
+ * @author Attardi
+ *
+ */
+public class TreeQuery {
+
+  /**
+   * A token matched by the top node of a query.
+   */
+  public static class Match {
+    public final int sentence;
+    public final int token;
+
+    Match(int sentence, int token) {
+      this.sentence = sentence;
+      this.token = token;
+    }
+  }
+
+  /**
+   * Parse query.
+   *
+   * @throws IllegalArgumentException if query is malformed.
+   */
+  public TreeQuery(String query) {
+    this.query = query;
+    top = node(false);
+    space();
+    if (at < query.length()) throw error("unexpected " + query.charAt(at));
+  }
+
+  /// Keys of terms.
+  static final String[] keys = { "form", "lemma", "pos", "cpos", "dep" };
+  static final int form = 0;
+  static final int lemma = 1;
+  static final int pos = 2;
+  static final int cpos = 3;
+  static final int dep = 4;
+  static final int anyPos = 5;	///< term without key
+
+  /**
+   * Index field holding the values of each key.
+   */
+  private static final int[] fields = { TokenIndex.words, TokenIndex.words,
+      TokenIndex.tags, TokenIndex.tags, TokenIndex.deps, TokenIndex.tags };
+
+  /**
+   * Sentences matched by each task.
+   */
+  static final int chunk = 256;
+
+  /**
+   * Test on the values of a token.
+   */
+  static class Term {
+    int	     key;
+    String[] values;
+
+    boolean matches(Sentence sentence, int t) {
+      switch (key) {
+      case form:
+	return in(sentence.forms[t], values);
+      case lemma:
+	return in(sentence.lemmas[t], values);
+      case pos:
+	return same(sentence.tags[t], values);
+      case cpos:
+	return same(sentence.coarseTags[t], values);
+      case dep:
+	return same(sentence.deps[t], values);
+      default:
+	return same(sentence.tags[t], values)
+	    || same(sentence.coarseTags[t], values);
+      }
+    }
+  }
+
+  /**
+   * Pattern for a token and its dependents.
+   */
+  static class Node {
+    Vector<Term>  terms	   = new Vector<Term>();
+    Vector<Child> children = new Vector<Child>();
+  }
+
+  /**
+   * Pattern for a dependent.
+   */
+  static class Child {
+    int	     direction;		///< -1 before head, 1 after, 0 either
+    boolean  negated;
+    String[] labels;		///< null for any
+    Node     node;
+  }
+
+  /**
+   * @return whether value is among values, ignoring case.
+   */
+  static boolean in(String value, String[] values) {
+    if (value == null) return false;
+    for (String v : values)
+      if (value.equalsIgnoreCase(v)) return true;
+    return false;
+  }
+
+  /**
+   * @return whether value is the same instance as one of values.
+   */
+  static boolean same(String value, String[] values) {
+    for (String v : values)
+      if (value == v) return true;
+    return false;
+  }
+
+  /// Parser
+
+  private Node node(boolean negated) {
+    Node node = new Node();
+    do {
+      space();
+      Term term = new Term();
+      String value = value();
+      if (peek('=')) {
+	term.key = Arrays.asList(keys).indexOf(value);
+	if (term.key < 0) throw error("unknown key " + value);
+	at++;
+	value = value();
+      } else
+	term.key = anyPos;
+      term.values = values(value);
+      if (term.key == anyPos && term.values.length == 1
+	  && term.values[0].equals("_"))
+	continue;		// any token
+      node.terms.add(term);
+      if (!negated && term.values.length == 1)
+	require(fields[term.key], term.values[0]);
+    } while (accept('&'));
+    space();
+    if (accept('(')) {
+      do {
+	node.children.add(child(negated));
+	space();
+      } while (accept(','));
+      if (!accept(')')) throw error("')' expected");
+    }
+    return node;
+  }
+
+  private Child child(boolean negated) {
+    Child child = new Child();
+    space();
+    if (accept('<'))
+      child.direction = -1;
+    else if (accept('>'))
+      child.direction = 1;
+    space();
+    child.negated = accept('!');
+    negated |= child.negated;
+    space();
+    String[] labels = values(value());
+    if (labels.length != 1 || !labels[0].equals("*")) {
+      child.labels = labels;
+      if (!negated && labels.length == 1)
+	require(TokenIndex.deps, labels[0]);
+    }
+    child.node = node(negated);
+    return child;
+  }
+
+  /**
+   * Record that matching sentences must contain value of field.
+   * Missing values, written "_", are not indexed and so are not required.
+   */
+  private void require(int field, String value) {
+    if (value.equals("_")) return;
+    requiredFields.add(field);
+    requiredValues.add(value);
+  }
+
+  /**
+   * @return first followed by the alternatives after it.
+   */
+  private String[] values(String first) {
+    Vector<String> values = new Vector<String>();
+    values.add(first);
+    while (accept('|'))
+      values.add(value());
+    return values.toArray(new String[values.size()]);
+  }
+
+  private String value() {
+    StringBuilder value = new StringBuilder();
+    while (at < query.length()) {
+      char c = query.charAt(at);
+      if (c == '\\' && at + 1 < query.length())
+	c = query.charAt(++at);
+      else if (Character.isWhitespace(c) || "()<>!,&|=".indexOf(c) >= 0)
+	break;
+      value.append(c);
+      at++;
+    }
+    if (value.length() == 0)
+      throw error(at < query.length() ? "unexpected " + query.charAt(at)
+	  : "value expected");
+    return value.toString();
+  }
+
+  private void space() {
+    while (at < query.length() && Character.isWhitespace(query.charAt(at)))
+      at++;
+  }
+
+  private boolean peek(char c) {
+    return at < query.length() && query.charAt(at) == c;
+  }
+
+  private boolean accept(char c) {
+    if (!peek(c)) return false;
+    at++;
+    return true;
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at " + at + " in: "
+	+ query);
+  }
+
+  /// Matching
+
+  /**
+   * @return the tokens of corpus matched by the top node, by sentence and
+   *	     position.
+   */
+  public Vector<Match> run(final Corpus corpus) {
+    final Node node = bind(top, corpus.vocabulary);
+    int[] candidates = candidates(corpus);
+    Vector<Callable<Vector<Match>>> tasks
+	= new Vector<Callable<Vector<Match>>>();
+    for (int start = 0; start < candidates.length; start += chunk) {
+      final int[] sentences = Arrays.copyOfRange(candidates, start,
+	  Math.min(candidates.length, start + chunk));
+      tasks.add(new Callable<Vector<Match>>() {
+	public Vector<Match> call() {
+	  Vector<Match> matches = new Vector<Match>();
+	  for (int i : sentences)
+	    match(node, corpus.getSentence(i), i, matches);
+	  return matches;
+	}
+      });
+    }
+    Vector<Match> matches = new Vector<Match>();
+    try {
+      for (Future<Vector<Match>> result : ParallelLoader.pool.invokeAll(tasks))
+	matches.addAll(result.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    return matches;
+  }
+
+  /**
+   * @return the sentences of corpus containing all the values required by
+   *	     the query, in order.
+   */
+  int[] candidates(Corpus corpus) {
+    if (requiredFields.isEmpty()) {
+      int[] all = new int[corpus.size()];
+      for (int i = 0; i < all.length; i++)
+	all[i] = i;
+      return all;
+    }
+    TokenIndex index = corpus.tokenIndex();
+    int[][] lists = new int[requiredFields.size()][];
+    for (int r = 0; r < lists.length; r++)
+      lists[r] = index.sentences(requiredFields.get(r),
+	  requiredValues.get(r));
+    // intersect the others with the shortest
+    int shortest = 0;
+    for (int r = 1; r < lists.length; r++)
+      if (lists[r].length < lists[shortest].length) shortest = r;
+    int[] candidates = lists[shortest];
+    int count = 0;
+    next:
+    for (int s : candidates) {
+      for (int[] list : lists)
+	if (list != candidates && Arrays.binarySearch(list, s) < 0)
+	  continue next;
+      candidates[count++] = s;
+    }
+    return Arrays.copyOf(candidates, count);
+  }
+
+  /**
+   * @return a copy of node whose tags and labels are the instances shared
+   *	     through vocabulary, omitting those not present, which cannot
+   *	     match. The query itself is left unchanged, so that it can run
+   *	     on several corpora at once.
+   */
+  private static Node bind(Node node, Vocabulary vocabulary) {
+    Node bound = new Node();
+    for (Term term : node.terms) {
+      Term copy = new Term();
+      copy.key = term.key;
+      copy.values = (term.key == form || term.key == lemma) ? term.values
+	  : shared(term.values, vocabulary);
+      bound.terms.add(copy);
+    }
+    for (Child child : node.children) {
+      Child copy = new Child();
+      copy.direction = child.direction;
+      copy.negated = child.negated;
+      copy.labels = (child.labels == null) ? null
+	  : shared(child.labels, vocabulary);
+      copy.node = bind(child.node, vocabulary);
+      bound.children.add(copy);
+    }
+    return bound;
+  }
+
+  private static String[] shared(String[] values, Vocabulary vocabulary) {
+    Vector<String> shared = new Vector<String>();
+    for (String value : values) {
+      String instance = vocabulary.shared(value);
+      if (instance != null) shared.add(instance);
+    }
+    return shared.toArray(new String[shared.size()]);
+  }
+
+  /**
+   * Add to matches the tokens of sentence i matched by node.
+   */
+  private static void match(Node node, Sentence sentence, int i,
+      Vector<Match> matches) {
+    for (int t = 0; t < sentence.length(); t++)
+      if (matches(node, sentence, t)) matches.add(new Match(i, t));
+  }
+
+  /**
+   * @return whether the values of token t of sentence match node.
+   */
+  private static boolean test(Node node, Sentence sentence, int t) {
+    for (Term term : node.terms)
+      if (!term.matches(sentence, t)) return false;
+    return true;
+  }
+
+  /**
+   * @return whether token t of sentence, and its dependents, match node.
+   */
+  private static boolean matches(Node node, Sentence sentence, int t) {
+    if (!test(node, sentence, t)) return false;
+    // dependents are found scanning the heads: sentences are short, and
+    // this is faster than building a DependencyTree for each
+    int[] parents = sentence.parents;
+    for (Child child : node.children) {
+      boolean found = false;
+      for (int d = 0; !found && d < parents.length; d++) {
+	if (parents[d] == 0 || parents[d] == Integer.MAX_VALUE
+	    || d + parents[d] != t)
+	  continue;
+	found = (child.direction == 0 || (child.direction < 0) == (d < t))
+	    && (child.labels == null || same(sentence.deps[d], child.labels))
+	    && matches(child.node, sentence, d);
+      }
+      if (found == child.negated) return false;
+    }
+    return true;
+  }
+
+  private final String	 query;
+  private int		 at = 0;	///< parsing position in query
+  private final Node	 top;
+  /// index fields and values required by the query
+  private final Vector<Integer>	 requiredFields = new Vector<Integer>();
+  private final Vector<String>	 requiredValues = new Vector<String>();
+}
@@ -0,0 +1,191 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.util.Vector;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+/**
+ * Dialog for running a TreeQuery on the corpus of the current pane.
+ * The query runs in background, and the tokens matched are listed with
+ * their sentence: selecting one shows the sentence in the annotator.
+ *
+ * @author Attardi
+ *
+ */
+public class TreeQueryDialog extends JDialog {
+
+  private static final long serialVersionUID = 1L;
+
+  public TreeQueryDialog(DGA frame) {
+    super(frame, "Tree Query");
+    this.frame = frame;
+    setSize(new java.awt.Dimension(520, 360));
+    setContentPane(getQueryPane());
+  }
+
+  /**
+   * This method initializes queryPane
+   *
+   * @return javax.swing.JPanel
+   */
+  private JPanel getQueryPane() {
+    if (queryPane == null) {
+      queryPane = new JPanel();
+      queryPane.setLayout(new BorderLayout());
+      JPanel top = new JPanel(new BorderLayout());
+      top.add(getQueryField(), BorderLayout.CENTER);
+      top.add(getFindButton(), BorderLayout.EAST);
+      queryPane.add(top, BorderLayout.NORTH);
+      queryPane.add(new JScrollPane(getResultList()), BorderLayout.CENTER);
+      statusLabel = new JLabel(" ");
+      queryPane.add(statusLabel, BorderLayout.SOUTH);
+    }
+    return queryPane;
+  }
+
+  /**
+   * This method initializes queryField
+   *
+   * @return javax.swing.JTextField
+   */
+  private JTextField getQueryField() {
+    if (queryField == null) {
+      queryField = new JTextField();
+      queryField.setFont(new java.awt.Font("Dialog", java.awt.Font.PLAIN, 14));
+      queryField.setToolTipText("e.g. VERB (nsubj PRON, > obj _)");
+      queryField.addActionListener(new java.awt.event.ActionListener() {
+	public void actionPerformed(java.awt.event.ActionEvent e) {
+	  find();
+	}
+      });
+    }
+    return queryField;
+  }
+
+  /**
+   * This method initializes findButton
+   *
+   * @return javax.swing.JButton
+   */
+  private JButton getFindButton() {
+    if (findButton == null) {
+      findButton = new JButton("Find");
+      findButton.addActionListener(new java.awt.event.ActionListener() {
+	public void actionPerformed(java.awt.event.ActionEvent e) {
+	  find();
+	}
+      });
+    }
+    return findButton;
+  }
+
+  /**
+   * This method initializes resultList
+   *
+   * @return javax.swing.JList
+   */
+  private JList<TreeQuery.Match> getResultList() {
+    if (resultList == null) {
+      resultList = new JList<TreeQuery.Match>();
+      resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+      resultList.setCellRenderer(new MatchRenderer());
+      // fixed cell size, as in CorpusPane, so that only visible matches
+      // are rendered
+      resultList.setFixedCellHeight(resultList.getFontMetrics(
+	  resultList.getFont()).getHeight() + 4);
+      resultList.setFixedCellWidth(1);
+      resultList.addListSelectionListener(new ListSelectionListener() {
+	public void valueChanged(ListSelectionEvent e) {
+	  TreeQuery.Match match = resultList.getSelectedValue();
+	  if (!e.getValueIsAdjusting() && match != null)
+	    frame.showSentence(resultPane, match.sentence);
+	}
+      });
+    }
+    return resultList;
+  }
+
+  /**
+   * Renders a match as the number and words of its sentence, with the
+   * token matched within brackets.
+   */
+  @SuppressWarnings("serial")
+  class MatchRenderer extends DefaultListCellRenderer {
+    public Component getListCellRendererComponent(JList<?> list, Object value,
+	int index, boolean isSelected, boolean cellHasFocus) {
+      TreeQuery.Match match = (TreeQuery.Match)value;
+      Sentence sentence = resultPane.getCorpus().getSentence(match.sentence);
+      StringBuilder s = new StringBuilder();
+      s.append(match.sentence + 1).append(':');
+      for (int i = 0; sentence != null && i < sentence.length(); i++) {
+	s.append(' ');
+	if (i == match.token) s.append('[');
+	s.append(sentence.forms[i]);
+	if (i == match.token) s.append(']');
+      }
+      return super.getListCellRendererComponent(list, s.toString(), index,
+	  isSelected, cellHasFocus);
+    }
+  }
+
+  /**
+   * Run the query in the field on the corpus of the current pane.
+   */
+  private void find() {
+    final TreeQuery query;
+    try {
+      query = new TreeQuery(queryField.getText());
+    } catch (IllegalArgumentException e) {
+      JOptionPane.showMessageDialog(this, e.getMessage(), "Tree Query",
+	  JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    final CorpusPane pane = frame.corpusPane;
+    final long start = System.currentTimeMillis();
+    findButton.setEnabled(false);
+    statusLabel.setText("Searching...");
+    new SwingWorker<Vector<TreeQuery.Match>, Object>() {
+      protected Vector<TreeQuery.Match> doInBackground() {
+	return query.run(pane.getCorpus());
+      }
+
+      protected void done() {
+	findButton.setEnabled(true);
+	try {
+	  Vector<TreeQuery.Match> matches = get();
+	  resultPane = pane;
+	  resultList.setListData(matches);
+	  statusLabel.setText(matches.size() + " matches in "
+	      + (System.currentTimeMillis() - start) + " ms");
+	} catch (Exception e) {
+	  statusLabel.setText("Query failed: " + e.getCause());
+	}
+      }
+    }.execute();
+  }
+
+  private DGA			   frame;
+  private JPanel		   queryPane	= null;
+  private JTextField		   queryField	= null;
+  private JButton		   findButton	= null;
+  private JList<TreeQuery.Match>   resultList	= null;
+  private JLabel		   statusLabel	= null;
+  private CorpusPane		   resultPane	= null;	///< pane of results
+}
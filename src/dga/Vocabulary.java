@@ -0,0 +1,166 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dictionary of the strings occurring in a corpus: forms, lemmas, tags,
+ * features and dependency labels.
+ * Each distinct string is stored once and gets an integer code, so that
+ * sentences share a single instance of each value and values can be
+ * compared by code.
+ * Lookups can be done directly on UTF-8 bytes, avoiding the creation of a
+ * String for values already present.
+ * Lookups are lock free, additions are synchronized, so a vocabulary can be
+ * shared by readers running in parallel.
+ *
+ * @author Attardi
+ *
+ */
+public class Vocabulary {
+
+  /**
+   * An entry in the dictionary.
+   */
+  static final class Entry {
+    final byte[] bytes;
+    final String string;
+    final int	 hash;
+    final int	 code;
+
+    Entry(byte[] bytes, String string, int hash, int code) {
+      this.bytes = bytes;
+      this.string = string;
+      this.hash = hash;
+      this.code = code;
+    }
+  }
+
+  public Vocabulary() {
+    table = new Entry[1024];
+    entries = new Entry[1024];
+  }
+
+  /**
+   * @return the shared instance of the string with the UTF-8 encoding
+   *         in buf[off, off + len).
+   */
+  public String intern(byte[] buf, int off, int len) {
+    return entry(buf, off, len).string;
+  }
+
+  /**
+   * @return the shared instance of s.
+   */
+  public String intern(String s) {
+    if (s == null) return null;
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    return entry(bytes, 0, bytes.length).string;
+  }
+
+  /**
+   * @return the code of s, adding it if not present.
+   */
+  public int code(String s) {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    return entry(bytes, 0, bytes.length).code;
+  }
+
+  /**
+   * @return the shared instance of s, or null if not present.
+   */
+  public String shared(String s) {
+    if (s == null) return null;
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    Entry e = find(table, bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+    return (e == null) ? null : e.string;
+  }
+
+  /**
+   * @return the code of s, or -1 if not present.
+   */
+  public int lookup(String s) {
+    if (s == null) return -1;
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    Entry e = find(table, bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+    return (e == null) ? -1 : e.code;
+  }
+
+  /**
+   * @return the string with the given code.
+   */
+  public String get(int code) {
+    return entries[code].string;
+  }
+
+  /**
+   * @return the number of distinct strings.
+   */
+  public int size() {
+    return size;
+  }
+
+  private Entry entry(byte[] buf, int off, int len) {
+    int hash = hash(buf, off, len);
+    Entry e = find(table, buf, off, len, hash);
+    return (e != null) ? e : add(buf, off, len, hash);
+  }
+
+  private synchronized Entry add(byte[] buf, int off, int len, int hash) {
+    // check again, since it might have been added concurrently
+    Entry e = find(table, buf, off, len, hash);
+    if (e != null) return e;
+    byte[] bytes = Arrays.copyOfRange(buf, off, off + len);
+    e = new Entry(bytes, new String(bytes, StandardCharsets.UTF_8), hash, size);
+    if (size == entries.length)
+      entries = Arrays.copyOf(entries, 2 * size);
+    entries[size++] = e;
+    Entry[] tab = table;
+    if (2 * size > tab.length) {
+      tab = new Entry[2 * tab.length];
+      for (int i = 0; i < size - 1; i++)
+	put(tab, entries[i]);
+    }
+    put(tab, e);
+    table = tab;		// publish
+    return e;
+  }
+
+  private static void put(Entry[] tab, Entry e) {
+    int mask = tab.length - 1;
+    int i = e.hash & mask;
+    while (tab[i] != null)
+      i = (i + 1) & mask;
+    tab[i] = e;
+  }
+
+  private static Entry find(Entry[] tab, byte[] buf, int off, int len, int hash) {
+    int mask = tab.length - 1;
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      Entry e = tab[i];
+      if (e == null) return null;
+      if (e.hash == hash && equals(e.bytes, buf, off, len)) return e;
+    }
+  }
+
+  private static boolean equals(byte[] bytes, byte[] buf, int off, int len) {
+    if (bytes.length != len) return false;
+    for (int i = 0; i < len; i++)
+      if (bytes[i] != buf[off + i]) return false;
+    return true;
+  }
+
+  private static int hash(byte[] buf, int off, int len) {
+    int h = 0;
+    for (int i = off; i < off + len; i++)
+      h = 31 * h + buf[i];
+    return h ^ (h >>> 16);
+  }
+
+  private volatile Entry[] table;	///< open addressing hash table
+  private volatile Entry[] entries;	///< entries by code
+  private volatile int	   size = 0;
+}
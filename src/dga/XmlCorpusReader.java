@@ -0,0 +1,310 @@
+///
+/// Copyright (c) 2005, Giuseppe Attardi (attardi@di.unipi.it).
+///
+package dga;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.*;
+import javax.xml.transform.Source;
+import javax.xml.validation.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Reads a corpus in the DGA XML format one sentence at a time, using a
+ * StAX pull parser.
+ * Sentences are built directly from the parser events, without creating
+ * a DOM for the whole document: <extra> elements are kept as text.
+ *
+ * @author Attardi
+ *
+ */
+class XmlCorpusReader implements Closeable {
+
+  static final String schemaFile = "/dga.xsd";
+
+  static final XMLInputFactory factory = XMLInputFactory.newInstance();
+  static {
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+  }
+
+  private static Schema schema;
+
+  /**
+   * @return the schema of DGA files, compiled on first use.
+   */
+  static synchronized Schema getSchema() throws SAXException {
+    if (schema == null) {
+      SchemaFactory factory = SchemaFactory
+	  .newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+      schema = factory.newSchema(Corpus.class.getResource(schemaFile));
+    }
+    return schema;
+  }
+
+  /**
+   * Validate source against the DGA schema, streaming through it.
+   *
+   * @throws SAXException if source is not valid.
+   * @throws IOException
+   */
+  static void validate(Source source) throws SAXException, IOException {
+    Validator validator = getSchema().newValidator();
+    validator.validate(source);
+  }
+
+  /**
+   * @param is
+   * @param vocabulary where to store values
+   * @throws XMLStreamException
+   */
+  XmlCorpusReader(InputStream is, Vocabulary vocabulary)
+      throws XMLStreamException {
+    this.is = is;
+    this.vocabulary = vocabulary;
+    in = factory.createXMLStreamReader(is);
+  }
+
+  /**
+   * @return the language declared by the root element, or null if not
+   *	     declared or not yet read.
+   */
+  String getLanguage() {
+    return language;
+  }
+
+  /**
+   * Read next sentence.
+   *
+   * @return the sentence or null at end of input.
+   * @throws XMLStreamException
+   */
+  Sentence read() throws XMLStreamException {
+    while (in.hasNext()) {
+      if (in.next() != XMLStreamConstants.START_ELEMENT) continue;
+      String name = in.getLocalName();
+      if (name.equals("DGA"))
+	language = in.getAttributeValue(null, "language");
+      else if (name.equals("s"))
+	return sentence();
+      else
+	skip();
+    }
+    return null;
+  }
+
+  /**
+   * Read all remaining sentences.
+   */
+  Vector<Sentence> readAll() throws XMLStreamException {
+    Vector<Sentence> sentences = new Vector<Sentence>();
+    Sentence sentence;
+    while ((sentence = read()) != null)
+      sentences.add(sentence);
+    return sentences;
+  }
+
+  /**
+   * Parse an <s> element, positioned at its start tag.
+   */
+  private Sentence sentence() throws XMLStreamException {
+    String sid = in.getAttributeValue(null, "id");
+    tokens.clear();
+    int tok = -1;
+    while (in.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      if (!in.getLocalName().equals("tok")) {
+	skip();
+	continue;
+      }
+      tok++;
+      tokens.add("", "", "", "", "", 0, "", "", "");
+      String gender = "";
+      String number = "";
+      String person = "";
+      String feats = "";
+      while (in.nextTag() == XMLStreamConstants.START_ELEMENT) {
+	String childName = in.getLocalName();
+	if (childName.equals("orth")) {
+	  tokens.setForm(text());
+	} else if (childName.equals("lemma")) {
+	  tokens.setLemma(text());
+	} else if (childName.equals("cpos")) {
+	  tokens.setCoarseTag(text());
+	} else if (childName.equals("pos")) {
+	  tokens.setTag(text());
+	} else if (childName.equals("gender")) {
+	  gender = in.getElementText();
+	} else if (childName.equals("number")) {
+	  number = in.getElementText();
+	} else if (childName.equals("person")) {
+	  person = in.getElementText();
+	} else if (childName.equals("feats")) { // back compatibility
+	  feats = in.getElementText();
+	} else if (childName.equals("morph")) {
+	  feats = in.getElementText();
+	} else if (childName.equals("dep")) {
+	  tokens.setParent(head(tok));
+	  String type = in.getAttributeValue(null, "type");
+	  if (type != null)
+	    tokens.setDep(vocabulary.intern(type));
+	  skip();
+	} else if (childName.equals("syn")) {
+	  // backward compatibility
+	  tokens.setParent(head(tok));
+	  while (in.nextTag() == XMLStreamConstants.START_ELEMENT) {
+	    if (in.getLocalName().equals("reltype"))
+	      tokens.setDep(text());
+	    else
+	      skip();
+	  }
+	} else if (childName.equals("extra")) {
+	  // save additional elements
+	  tokens.setExtra(extra());
+	} else
+	  skip();
+      }
+      tokens.setMorpho(vocabulary.intern(feats.isEmpty() ? gender + number
+	  + person : feats));
+    }
+    return tokens.build(sid);
+  }
+
+  /**
+   * @return the offset to the head given in the head attribute of the
+   *	     current element for token tok, or 0 if missing.
+   */
+  private int head(int tok) {
+    String head = in.getAttributeValue(null, "head");
+    if (head == null) return 0;
+    int index = 0;
+    try {
+      index = Integer.parseInt(head);
+    } catch (Exception exception) {
+    }
+    // Integer.MAX_VALUE means root link
+    return (index == 0) ? Integer.MAX_VALUE : index - tok - 1;
+  }
+
+  /**
+   * @return the text of current element, shared through vocabulary.
+   */
+  private String text() throws XMLStreamException {
+    return vocabulary.intern(in.getElementText());
+  }
+
+  /**
+   * Skip current element, including its content.
+   */
+  private void skip() throws XMLStreamException {
+    for (int depth = 1; depth > 0; ) {
+      int event = in.next();
+      if (event == XMLStreamConstants.START_ELEMENT) depth++;
+      else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+    }
+  }
+
+  /**
+   * @return the current element with its content, as text.
+   */
+  private Extra extra() throws XMLStreamException {
+    StringBuilder xml = new StringBuilder();
+    try {
+      copy(xml, Extra.indent, new HashMap<String, String>());
+    } catch (IOException e) {
+      // cannot happen on a StringBuilder
+    }
+    return new Extra(xml.toString());
+  }
+
+  /**
+   * Write the current element and its content to out, laid out as
+   * XmlPrinter does at the given indentation.
+   * Namespace declarations are kept, and prefixes declared outside the
+   * element are declared on it, so that it can be read back on its own.
+   *
+   * @param declared the namespaces declared by the enclosing elements
+   *	    written, by prefix.
+   */
+  private void copy(Appendable out, String indent,
+      Map<String, String> declared) throws XMLStreamException, IOException {
+    String name = qualifiedName(in.getPrefix(), in.getLocalName());
+    out.append('<').append(name);
+    for (int i = 0; i < in.getNamespaceCount(); i++)
+      declared = declare(out, in.getNamespacePrefix(i), in.getNamespaceURI(i),
+	  declared);
+    declared = declare(out, in.getPrefix(), in.getNamespaceURI(), declared);
+    for (int i = 0; i < in.getAttributeCount(); i++) {
+      String prefix = in.getAttributePrefix(i);
+      if (prefix != null && !prefix.isEmpty())
+	declared = declare(out, prefix, in.getAttributeNamespace(i), declared);
+    }
+    for (int i = 0; i < in.getAttributeCount(); i++) {
+      out.append(' ').append(qualifiedName(in.getAttributePrefix(i),
+	  in.getAttributeLocalName(i))).append("=\"");
+      HtmlEncoder.encode(in.getAttributeValue(i).trim(), true, out);
+      out.append('"');
+    }
+    out.append('>');
+    String inner = indent + "  ";
+    while (true) {
+      switch (in.next()) {
+      case XMLStreamConstants.START_ELEMENT:
+	out.append(inner);
+	copy(out, inner, declared);
+	break;
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.CDATA:
+      case XMLStreamConstants.SPACE:
+	HtmlEncoder.encode(in.getText().trim(), true, out);
+	break;
+      case XMLStreamConstants.END_ELEMENT:
+	out.append("</").append(name).append('>');
+	return;
+      }
+    }
+  }
+
+  /**
+   * Write to out the declaration of namespace uri for prefix, unless
+   * declared so already.
+   *
+   * @return the namespaces declared, including this one.
+   */
+  private static Map<String, String> declare(Appendable out, String prefix,
+      String uri, Map<String, String> declared) throws IOException {
+    if (prefix == null) prefix = "";
+    if (uri == null) uri = "";
+    String bound = declared.get(prefix);
+    if (uri.equals(bound == null ? "" : bound)) return declared;
+    out.append(prefix.isEmpty() ? " xmlns" : " xmlns:" + prefix).append("=\"");
+    HtmlEncoder.encode(uri, true, out);
+    out.append('"');
+    declared = new HashMap<String, String>(declared);
+    declared.put(prefix, uri);
+    return declared;
+  }
+
+  private static String qualifiedName(String prefix, String name) {
+    return (prefix == null || prefix.isEmpty()) ? name : prefix + ":" + name;
+  }
+
+  public void close() throws IOException {
+    try {
+      in.close();
+    } catch (XMLStreamException e) {
+    }
+    is.close();
+  }
+
+  private final InputStream	is;
+  private final XMLStreamReader in;
+  private final Vocabulary	vocabulary;
+  private final SentenceBuilder tokens = new SentenceBuilder();
+  private String		language;
+}
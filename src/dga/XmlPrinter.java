@@ -4,17 +4,21 @@ import java.io.*;
 import org.w3c.dom.*;
 
 public class XmlPrinter {
-  private PrintWriter out;
+  private Appendable out;
   
   public XmlPrinter(PrintWriter out) {
     this.out = out;
   }
   
-  public void printTree(Node node, String indent) {
+  public XmlPrinter(Appendable out) {
+    this.out = out;
+  }
+  
+  public void printTree(Node node, String indent) throws IOException {
     switch (node.getNodeType()) {
     case Node.DOCUMENT_NODE:
       // print the contents of the Document node
-      out.print("<?xml version=\"1.0\"?>");
+      out.append("<?xml version=\"1.0\"?>");
       NodeList nodes = node.getChildNodes();
       if (nodes != null) {
 	for (int i = 0; i < nodes.getLength(); i++) {
@@ -26,25 +30,27 @@ public class XmlPrinter {
     case Node.ELEMENT_NODE:
       // print element and atributes
       String name = node.getNodeName();
-      out.print(indent + '<' + name);
+      out.append(indent).append('<').append(name);
       // print attributes
       NamedNodeMap attributes = node.getAttributes();
       for (int i = 0; i < attributes.getLength(); i++) {
 	Node current = attributes.item(i);
-	out.print(" " + current.getNodeName() + "=\"" + htmlEncode(current.getNodeValue()) +  "\"");
+	out.append(' ').append(current.getNodeName()).append("=\"");
+	HtmlEncoder.encode(current.getNodeValue().trim(), true, out);
+	out.append('"');
       }
       // recurse on children
       NodeList children = node.getChildNodes();
       if (children == null)
-	out.print(" />");
+	out.append(" />");
       else {
-	out.print(">");
+	out.append('>');
 	for (int i = 0; i < children.getLength(); i++) {
 	  Node child = children.item(i);
 	  printTree(child, indent + "  ");
 	}
 	// FIXME: should indent when last printed child is ELEMENT_NODE
-	out.print("</" + name + ">");
+	out.append("</").append(name).append('>');
       }
       break;
       
@@ -52,7 +58,7 @@ public class XmlPrinter {
     case Node.CDATA_SECTION_NODE:
       // print textual data
       if (node.getNodeValue().trim() != "") {
-	out.print(htmlEncode(node.getNodeValue()));
+	HtmlEncoder.encode(node.getNodeValue().trim(), true, out);
       }
       break;
       
@@ -65,18 +71,15 @@ public class XmlPrinter {
   }
   
   public static String htmlEncode(String v) {
-    return(v.trim().replaceAll("&", "&amp;").replaceAll("<", "&lt;").replaceAll(">", "&gt;").replaceAll("\"", "&quot;"));
+    return HtmlEncoder.encode(v.trim(), true);
   }
   
   // Converts the contents of a node to a string
   public static String NodeToString(Node n, String indent) {
     try {
-      StringWriter tmpout = new StringWriter();
-      PrintWriter pw = new PrintWriter(tmpout);
-      XmlPrinter xmp = new XmlPrinter(pw);
+      StringBuilder tmpout = new StringBuilder();
+      XmlPrinter xmp = new XmlPrinter(tmpout);
       xmp.printTree(n, indent);
-      pw.close();
-      tmpout.close();
       return tmpout.toString();
     } catch (IOException ex) {
       return("");